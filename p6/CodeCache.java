@@ -0,0 +1,235 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/***
+ * The CodeCache class keeps the generated code of functions in a
+ * directory, one file per function, named by a hash of everything that
+ * code depends on (see DeclListNode.useCache): the text of the function,
+ * the declarations of the globals, structs and functions it uses, and the
+ * switches that change code generation.  A function whose entry is found
+ * is not type checked, folded or generated again; its code is read back
+ * and linked in with the rest of the program (see Ir.link).
+ *
+ * An entry holds the optimized code of the function before linking: its
+ * name, its number of labels and its string literals (see IrFunction), a
+ * table of the names, directives and comments it uses, and its entries,
+ * with SYM operands and comments as indices into that table.  An operand
+ * is its tag in one byte, followed by its value in four unless it is NONE.
+ * Entries are written to a temporary file and renamed into place, so that
+ * several compilers may share a directory; an entry that cannot be read
+ * counts as missing.
+ ***/
+public class CodeCache {
+    // changes whenever the generated code or the format of an entry does
+    static final int VERSION = 11;
+
+    private File myDir;
+
+    public CodeCache(String dir) {
+        myDir = new File(dir);
+    }
+
+    /***
+     * Return the key for text: its SHA-256 digest, in hex.
+     ***/
+    public static String key(String text) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256")
+                                .digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);  // every JVM has SHA-256
+        }
+        StringBuilder sb = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /***
+     * Return the code stored under key, with its names interned in pool,
+     * or null if there is none.
+     ***/
+    public IrFunction load(String key, NameTable pool) {
+        try {
+            return read(Files.readAllBytes(new File(myDir, key).toPath()),
+                        pool);
+        } catch (IOException | RuntimeException ex) {
+            return null;  // not there, or cut short
+        }
+    }
+
+    /***
+     * Store the code of unit, whose names are in pool, under key.  A cache
+     * that cannot be written is only slower, so failures are ignored.
+     ***/
+    public void store(String key, IrFunction unit, NameTable pool) {
+        File tmp = null;
+        try {
+            myDir.mkdirs();
+            tmp = File.createTempFile(key, ".tmp", myDir);
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                write(out, unit, pool);
+            }
+            Files.move(tmp.toPath(), new File(myDir, key).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException ex) {
+            // leave the function uncached
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, IrFunction unit,
+                              NameTable pool) throws IOException {
+        InstrBuffer code = unit.code();
+
+        // the pool ids used, numbered in order of first use
+        NameTable local = new NameTable();
+        for (int i = 0; i < code.size(); i++) {
+            for (int k = 0; k < 3; k++) {
+                long arg = code.arg(i, k);
+                if (InstrBuffer.tag(arg) == InstrBuffer.SYM) {
+                    local.intern(pool.name(InstrBuffer.value(arg)));
+                }
+            }
+            if (code.comment(i) >= 0) {
+                local.intern(pool.name(code.comment(i)));
+            }
+        }
+
+        out.writeInt(VERSION);
+        out.writeUTF(unit.name());
+        out.writeInt(unit.labels());
+        out.writeInt(unit.strings().size());
+        for (IrFunction.StringDef def : unit.strings()) {
+            out.writeInt(def.label);
+            writeString(out, def.value);
+        }
+        out.writeInt(local.size());
+        for (int id = 0; id < local.size(); id++) {
+            writeString(out, local.name(id));
+        }
+        out.writeInt(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            out.writeByte(code.kind(i));
+            out.writeByte(code.op(i).ordinal());
+            for (int k = 0; k < 3; k++) {
+                long arg = code.arg(i, k);
+                int tag = InstrBuffer.tag(arg);
+                int val = InstrBuffer.value(arg);
+                if (tag == InstrBuffer.SYM) {
+                    val = local.lookup(pool.name(val));
+                }
+                out.writeByte(tag);
+                if (tag != InstrBuffer.NONE) {
+                    out.writeInt(val);
+                }
+            }
+            int comment = code.comment(i);
+            out.writeInt(comment < 0 ? -1
+                                     : local.lookup(pool.name(comment)));
+        }
+    }
+
+    // This runs on code that has mostly not been compiled yet, so it reads
+    // the bytes itself rather than through a DataInputStream.
+    private static IrFunction read(byte[] bytes, NameTable pool) {
+        Reader in = new Reader(bytes);
+        if (in.getInt() != VERSION) {
+            return null;
+        }
+        IrFunction unit = new IrFunction(in.getUTF(), pool);
+        unit.setLabels(in.getInt());
+        int strings = in.getInt();
+        for (int s = 0; s < strings; s++) {
+            int label = in.getInt();
+            unit.addString(label, in.getString());
+        }
+        int[] ids = new int[in.getInt()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = pool.intern(in.getString());
+        }
+        Op[] ops = Op.values();
+        int size = in.getInt();
+        InstrBuffer code = unit.code();
+        for (int i = 0; i < size; i++) {
+            int kind = in.getByte();
+            Op op = ops[in.getByte()];
+            long a1 = in.getOperand(ids);
+            long a2 = in.getOperand(ids);
+            long a3 = in.getOperand(ids);
+            int comment = in.getInt();
+            code.add(kind, op, a1, a2, a3, comment < 0 ? -1 : ids[comment]);
+        }
+        return unit;
+    }
+
+    // the fields of an entry, in the order write writes them
+    private static class Reader {
+        private byte[] bytes;
+        private int p = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int getByte() {
+            return bytes[p++];
+        }
+
+        int getInt() {
+            int val = (bytes[p] << 24) | ((bytes[p + 1] & 0xff) << 16) |
+                      ((bytes[p + 2] & 0xff) << 8) | (bytes[p + 3] & 0xff);
+            p += 4;
+            return val;
+        }
+
+        // an operand, with SYM values mapped through ids
+        long getOperand(int[] ids) {
+            int tag = getByte();
+            switch (tag) {
+            case InstrBuffer.NONE: return InstrBuffer.NONE;
+            case InstrBuffer.REG:  return InstrBuffer.reg(getInt());
+            case InstrBuffer.IMM:  return InstrBuffer.imm(getInt());
+            case InstrBuffer.SYM:  return InstrBuffer.sym(ids[getInt()]);
+            case InstrBuffer.LBL:  return InstrBuffer.label(getInt());
+            default: throw new IllegalStateException("bad operand " + tag);
+            }
+        }
+
+        // as written by writeString
+        String getString() {
+            int len = getInt();
+            String s = new String(bytes, p, len, StandardCharsets.UTF_8);
+            p += len;
+            return s;
+        }
+
+        // as written by writeUTF, for the ASCII names of functions
+        String getUTF() {
+            int len = ((bytes[p] & 0xff) << 8) | (bytes[p + 1] & 0xff);
+            String s = new String(bytes, p + 2, len, StandardCharsets.UTF_8);
+            p += 2 + len;
+            return s;
+        }
+    }
+
+    // strings may be longer than writeUTF allows (see Reader.getString)
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
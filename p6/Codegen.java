@@ -1,31 +1,43 @@
-import java.io.*;
 import java.util.HashMap;
+import java.util.List;
 
 // **********************************************************************
 // The Codegen class provides constants and operations useful for code
 // generation.
 //
 // The constants are:
-//     Registers: FP, SP, RA, V0, V1, A0, T0, T1
+//     Registers: FP, SP, RA, V0, V1, A0, T0 - T9
 //     Values: TRUE, FALSE
 //
-// The operations are include various "generate" methods to print nicely
-// formatted assembly code:
+// The operations are include various "generate" methods to record
+// instructions in the intermediate code (see Ir):
 //     generateWithComment
 //     generate
+//     generateWithLabel
 //     generateIndexed
 //     generateLabeled
 //     genPush
 //     genPop
 //     genLabel
-// and a method nextLabel to create and return a new label.
+// a method nextLabel to create and return a new label, and beginFunction
+// and endFunction to mark the code of each function.  Each instruction is
+// recorded as an Op and its operands (see InstrBuffer), not as text;
+// MipsEmitter writes the recorded code once the whole program has been
+// generated.
+//
+// When the -regalloc switch is on (see regAlloc), expressions that need no
+// stack are evaluated in T0 - T9 (see tReg) instead of by pushing and
+// popping every intermediate value; V1 holds an operand that had to be
+// spilled to the stack.
+//
+// The intermediate code, the string literals and the label count belong to
+// the CompilationContext bound to the calling thread.  Labels and string
+// literals are numbered afresh in each function, and Ir.link numbers them
+// across the program once it has all been generated.
 //
 // **********************************************************************
 
 public class Codegen {
-    // file into which generated code is written
-    public static PrintWriter p = null;
-    public static HashMap<String,String> stringMap;
 
     // values of true and false
     public static final String TRUE = "1";
@@ -40,14 +52,19 @@ public class Codegen {
     public static final String A0 = "$a0";
     public static final String T0 = "$t0";
     public static final String T1 = "$t1";
+    public static final String T2 = "$t2";
+    public static final String T3 = "$t3";
+    public static final String T4 = "$t4";
+    public static final String T5 = "$t5";
+    public static final String T6 = "$t6";
+    public static final String T7 = "$t7";
+    public static final String T8 = "$t8";
+    public static final String T9 = "$t9";
 
-
-    // for pretty printing generated code
-    private static final int MAXLEN = 4;
-
-
-    // for generating labels
-    private static int currLabel = 0;
+    // the temporaries of the register backend, in the order they are used
+    private static final String[] TREGS =
+        { T0, T1, T2, T3, T4, T5, T6, T7, T8, T9 };
+    public static final int NUM_TREGS = TREGS.length;
 
 
     // **********************************************************************
@@ -59,26 +76,12 @@ public class Codegen {
     // **********************************************************************
     // generateWithComment
     //    given:  op code, comment, and 0 to 3 string args
-    //    do:     write nicely formatted code (ending with new line)
+    //    do:     record the instruction
     // **********************************************************************
     public static void generateWithComment(String opcode, String comment,
                                         String arg1, String arg2, String arg3) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print("\t" + opcode);
-        if (arg1 != "") {
-            for (int k = 1; k <= space; k++) 
-                p.print(" ");
-            p.print(arg1);
-            if (arg2 != "") {
-                p.print(", " + arg2);
-                if (arg3 != "") 
-                    p.print(", " + arg3);
-            }
-        }
-        if (comment != "") 
-            p.print("\t\t# " + comment);
-        p.println();
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1), operand(arg2),
+            operand(arg3), comment);
     }
 
     public static void generateWithComment(String opcode, String comment,
@@ -98,24 +101,12 @@ public class Codegen {
     // **********************************************************************
     // generate
     //    given:  op code, and 0 to 3 string args
-    //    do:     write nicely formatted code (ending with new line)
+    //    do:     record the instruction
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 String arg3) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print("\t" + opcode);
-        if (arg1 != "") {
-            for (int k = 1; k <= space; k++) 
-                p.print(" ");
-            p.print(arg1);
-            if (arg2 != "") {
-                p.print(", " + arg2);
-                if (arg3 != "") 
-                    p.print(", " + arg3);
-            }
-        }
-        p.println();
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1), operand(arg2),
+            operand(arg3), "");
     }
 
     public static void generate(String opcode, String arg1, String arg2) {
@@ -133,50 +124,57 @@ public class Codegen {
     // **********************************************************************
     // generate (two string args, one int)
     //    given:  op code and args
-    //    do:     write nicely formatted code (ending with new line)
+    //    do:     record the instruction
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 int arg3) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print("\t" + opcode);
-        for (int k = 1; k <= space; k++) 
-            p.print(" ");
-        p.println(arg1 + ", " + arg2 + ", " + arg3);
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1), operand(arg2),
+            InstrBuffer.imm(arg3), "");
     }
     
     // **********************************************************************
     // generate (one string arg, one int)
     //    given:  op code and args
-    //    do:     write nicely formatted code (ending with new line)
+    //    do:     record the instruction
     // **********************************************************************
     public static void generate(String opcode, String arg1, int arg2) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print("\t" + opcode);
-        for (int k = 1; k <= space; k++) 
-            p.print(" ");
-        p.println(arg1 + ", " + arg2);
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1), InstrBuffer.imm(arg2),
+            InstrBuffer.NONE, "");
     }
     
+    // **********************************************************************
+    // generateWithLabel
+    //    given:  op code, 0 to 2 string args and a label (see nextLabel)
+    //    do:     record the instruction, with the label as its last arg
+    // **********************************************************************
+    public static void generateWithLabel(String opcode, String arg1,
+                                         String arg2, int label) {
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1), operand(arg2),
+            InstrBuffer.label(label), "");
+    }
+
+    public static void generateWithLabel(String opcode, String arg1,
+                                         int label) {
+        add(InstrBuffer.OP, Op.of(opcode), operand(arg1),
+            InstrBuffer.label(label), InstrBuffer.NONE, "");
+    }
+
+    public static void generateWithLabel(String opcode, int label) {
+        add(InstrBuffer.OP, Op.of(opcode), InstrBuffer.label(label),
+            InstrBuffer.NONE, InstrBuffer.NONE, "");
+    }
+
     // **********************************************************************
     // generateIndexed
     //    given:  op code, target register T1 (as string), indexed register T2
     //            (as string), - offset xx (int), and optional comment
-    //    do:     write nicely formatted code (ending with new line):
+    //    do:     record the instruction:
     //                 op T1, xx(T2) # comment
     // **********************************************************************
     public static void generateIndexed(String opcode, String arg1, String arg2,
                                        int arg3, String comment) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print("\t" + opcode);
-        for (int k = 1; k <= space; k++) 
-            p.print(" ");
-        p.print(arg1 + ", " + arg3 + "(" + arg2 + ")");
-        if (comment != "") 
-            p.print("\t# " + comment);
-        p.println();
+        add(InstrBuffer.INDEXED, Op.of(opcode), operand(arg1), operand(arg2),
+            InstrBuffer.imm(arg3), comment);
     }
     
     public static void generateIndexed(String opcode, String arg1, String arg2,
@@ -187,22 +185,12 @@ public class Codegen {
     // **********************************************************************
     // generateLabeled (string args -- perhaps empty)
     //    given:  label, op code, comment, and arg
-    //    do:     write nicely formatted code (ending with new line)
+    //    do:     record the instruction
     // **********************************************************************
     public static void generateLabeled(String label, String opcode,
                                        String comment, String arg1) {
-        int space = MAXLEN - opcode.length() + 2;
-    
-        p.print(label + ":");
-        p.print("\t" + opcode);
-        if (arg1 != "") {
-            for (int k = 1; k <= space; k++) 
-                p.print(" ");
-            p.print(arg1);
-        }
-        if (comment != "") 
-            p.print("\t# " + comment);
-        p.println();
+        add(InstrBuffer.LABELED, Op.of(opcode), operand(label), operand(arg1),
+            InstrBuffer.NONE, comment);
     }
 
     public static void generateLabeled(String label, String opcode,
@@ -233,27 +221,123 @@ public class Codegen {
     //   given:    label L and comment (comment may be empty)
     //   generate: L:    # comment
     // **********************************************************************
-    public static void genLabel(String label, String comment) {
-        p.print(label + ":");
-        if (comment != "") 
-            p.print("\t\t" + "# " + comment);
-        p.println();
+    public static void genLabel(int label, String comment) {
+        add(InstrBuffer.LABEL, null, InstrBuffer.label(label),
+            InstrBuffer.NONE, InstrBuffer.NONE, comment);
     }
     
-    public static void genLabel(String label) {
+    public static void genLabel(int label) {
         genLabel(label, "");
     }
     
     // **********************************************************************
-    // Return a different label each time:
-    //        L0 L1 L2, etc.
+    // Return a different label each time: 0 1 2, etc.  A label is only a
+    // number until it is written out, as .L0 .L1 .L2, etc.
     // **********************************************************************
-    public static String nextLabel() {
-        Integer k = new Integer(currLabel++);
-        String tmp = ".L" + k;
-        return(tmp);
+    public static int nextLabel() {
+        return CompilationContext.current().currLabel++;
     }
-    public static String addGlobalVar(String varName){
-        return ("\t.data\n\t.align 2\n_"+varName+":\t.space 4\n");
+
+    // **********************************************************************
+    // tReg
+    //    return temporary register k (0 <= k < NUM_TREGS) of the register
+    //    backend
+    // **********************************************************************
+    public static String tReg(int k) {
+        return TREGS[k];
+    }
+
+    // **********************************************************************
+    // regAlloc
+    //    return true if expressions are to be evaluated in registers
+    //    wherever that is possible
+    // **********************************************************************
+    public static boolean regAlloc() {
+        return CompilationContext.current().options.regAlloc;
+    }
+
+    // **********************************************************************
+    // print
+    //    record text (directives, labels) to be written out as it is
+    // **********************************************************************
+    public static void print(String s) {
+        Ir ir = CompilationContext.current().ir;
+        ir.code().add(InstrBuffer.TEXT, null,
+                      InstrBuffer.sym(ir.pool().intern(s)), InstrBuffer.NONE,
+                      InstrBuffer.NONE, -1);
+    }
+
+    // **********************************************************************
+    // beginFunction / endFunction
+    //    mark the start and end of the code of the named function; at the
+    //    end, dead labels are dropped and the peephole rules are run
+    // **********************************************************************
+    public static void beginFunction(String name) {
+        CompilationContext ctx = CompilationContext.current();
+        ctx.ir.beginFunction(name);
+        ctx.currLabel = 0;
+        ctx.stringMap = new HashMap<>();
+    }
+
+    public static void endFunction() {
+        CompilationContext ctx = CompilationContext.current();
+        IrFunction unit = ctx.ir.current();
+        ctx.ir.endFunction(ctx.currLabel);
+        unit.dropDeadLabels();
+        if (ctx.options.peephole != 0) {
+            new Peephole(ctx.options.peephole).optimize(unit.code());
+            unit.dropDeadLabels();  // the jumps it removed
+        }
+    }
+
+    // **********************************************************************
+    // addFunction / cacheFunction
+    //    add the code of a function read from the CodeCache; store the code
+    //    of the function just generated in the CodeCache under key
+    // **********************************************************************
+    public static void addFunction(IrFunction unit) {
+        CompilationContext.current().ir.addFunction(unit);
+    }
+
+    public static void cacheFunction(String key) {
+        CompilationContext ctx = CompilationContext.current();
+        List<IrFunction> units = ctx.ir.units();
+        ctx.cache.store(key, units.get(units.size() - 1), ctx.ir.pool());
+    }
+
+    // **********************************************************************
+    // stringLabel
+    //    return the label of the data of a string literal, recording the
+    //    data the first time the current function uses the literal
+    // **********************************************************************
+    public static int stringLabel(String value) {
+        CompilationContext ctx = CompilationContext.current();
+        Integer label = ctx.stringMap.get(value);
+        if (label == null) {
+            print("\t.data\n");
+            label = nextLabel();
+            genLabel(label);
+            print("\t.asciiz " + value);
+            print("\t.text\n");
+            ctx.ir.current().addString(label, value);
+            ctx.stringMap.put(value, label);
+        }
+        return label;
+    }
+
+    // record one entry of the intermediate code
+    private static void add(int kind, Op op, long a1, long a2, long a3,
+                            String comment) {
+        Ir ir = CompilationContext.current().ir;
+        ir.code().add(kind, op, a1, a2, a3, ir.comment(comment));
+    }
+
+    // the operand for a register, int or name (see Ir.operand)
+    private static long operand(String s) {
+        return CompilationContext.current().ir.operand(s);
+    }
+
+    public static String addGlobalVar(String varName, int size){
+        return ("\t.data\n\t.align 2\n_"+varName+":\t.space "+size+"\n");
     }
 }
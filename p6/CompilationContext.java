@@ -0,0 +1,120 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/***
+ * The CompilationContext class holds all of the mutable state that belongs
+ * to the compilation of one minim program: the error flag and the stream
+ * diagnostics are written to, the identifiers seen so far, the scanner's
+ * character number, the offset of the next local variable and the code
+ * generator's intermediate code, string literals and label count (and,
+ * with -stats, the time and counts of each phase).
+ *
+ * A context is handed to Yylex and to the ProgramNode passes, which bind it
+ * to the running thread for as long as they run.  The static helpers in
+ * ErrMsg, Sym and Codegen work on the context bound to the calling thread,
+ * so several programs can be compiled at the same time on different
+ * threads as long as each one has its own context.
+ ***/
+public class CompilationContext {
+    // the context bound to each thread, if any
+    private static final ThreadLocal<CompilationContext> current =
+        new ThreadLocal<CompilationContext>();
+
+    // the switches this program is compiled with
+    Options options;
+
+    // error reporting
+    boolean err = false;
+    PrintStream errStream;
+
+    // errors held back by the fused analysis pass (see ErrMsg.hold)
+    boolean holding = false;
+    ArrayList<String> held = new ArrayList<String>();
+
+    // the interned identifiers of the program
+    NameTable names = new NameTable();
+
+    // scanning: character number at which the current token starts
+    int charNum = 1;
+
+    // name analysis: offset of the next local variable
+    int localOffset = -8;
+
+    // the code of unchanged functions from earlier compiles, or null
+    CodeCache cache = null;
+
+    // the time and counts of each phase, or null unless -stats is given
+    CompileStats stats = null;
+
+    // code generation
+    Ir ir = null;
+    HashMap<String,Integer> stringMap = null;
+    int currLabel = 0;
+
+    public CompilationContext() {
+        this(System.err, new Options());
+    }
+
+    public CompilationContext(PrintStream errStream, Options options) {
+        this.errStream = errStream;
+        this.options = options;
+    }
+
+    /***
+     * Return true if an error has been reported in this compilation.
+     ***/
+    public boolean hasErrors() {
+        return err;
+    }
+
+    /***
+     * Return a context in which to generate the code of one function on
+     * another thread: it shares the switches, names and cache of this one
+     * and has intermediate code, labels and string literals of its own.
+     ***/
+    CompilationContext forFunction() {
+        CompilationContext task = new CompilationContext(errStream, options);
+        task.names = names;
+        task.cache = cache;
+        task.ir = new Ir();
+        return task;
+    }
+
+    /***
+     * Return the context bound to the calling thread.  Throws
+     * IllegalStateException if there is none: compiler code run on a
+     * thread that did not enter() a context is a bug, and a default
+     * context would hide it behind wrong output.
+     ***/
+    static CompilationContext current() {
+        CompilationContext ctx = current.get();
+        if (ctx == null) {
+            throw new IllegalStateException(
+                "no compilation context bound to thread " +
+                Thread.currentThread().getName());
+        }
+        return ctx;
+    }
+
+    /***
+     * Bind this context to the calling thread and return the context that
+     * was bound before, which must be handed back to leave() afterwards.
+     ***/
+    CompilationContext enter() {
+        CompilationContext prev = current.get();
+        current.set(this);
+        return prev;
+    }
+
+    /***
+     * Restore the context that was bound before the matching enter().
+     ***/
+    static void leave(CompilationContext prev) {
+        if (prev == null) {
+            current.remove();
+        } else {
+            current.set(prev);
+        }
+    }
+}
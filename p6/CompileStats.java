@@ -0,0 +1,332 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java_cup.runtime.Scanner;
+import java_cup.runtime.Symbol;
+
+/***
+ * The CompileStats class records where the time of one compilation goes,
+ * for the -stats switch: the wall time, CPU time and bytes allocated by
+ * each phase on the compiling thread, and counts of what the phases
+ * produce: tokens, AST nodes of each class, symbols declared and scopes
+ * opened (see SymTable), and labels and instructions in the generated
+ * code.
+ *
+ * The parser pulls tokens from the scanner as it goes, as it does without
+ * -stats, so scanning is told apart from parsing by timing each call to
+ * the scanner (see scanner and endParse); with -tokens the source is all
+ * scanned when it is opened, and that is the scan phase.  The CPU clock
+ * costs more to read than a token costs to scan, so scanning and parsing
+ * have no CPU time of their own unless -tokens is given.
+ *
+ * CPU time and allocation are -1 if the JVM cannot measure them, and the
+ * work of other threads (with -pcodegen) shows in wall time only.  The
+ * report is printed to the compile's error stream, or appended to a file
+ * as one line of JSON.
+ ***/
+public class CompileStats {
+    private static final ThreadMXBean threads =
+        ManagementFactory.getThreadMXBean();
+
+    // the time and allocation of one phase
+    private static class Phase {
+        String name;
+        long wall;
+        long cpu;
+        long bytes;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    private ArrayList<Phase> phases = new ArrayList<Phase>();
+    private Phase current = null;
+    private long wallStart;
+    private long cpuStart;
+    private long bytesStart;
+
+    // the time and allocation spent in the scanner since scanner() was
+    // called, if it was
+    private boolean timingScanner = false;
+    private long scanWall = 0;
+    private long scanBytes = 0;
+
+    // the counts, filled in by the phases
+    int tokens = 0;
+    int symbols = 0;
+    int scopes = 0;
+    int labels = 0;
+    int instructions = 0;
+    private TreeMap<String,Integer> nodes = new TreeMap<String,Integer>();
+
+    // the fields of each AST class that may refer to other nodes
+    private static final Map<Class<?>,Field[]> childFields =
+        new java.util.concurrent.ConcurrentHashMap<Class<?>,Field[]>();
+
+    /***
+     * End the current phase, if any, and start the one with the given name.
+     ***/
+    public void begin(String name) {
+        end();
+        current = new Phase(name);
+        bytesStart = allocated();
+        cpuStart = cpuTime();
+        wallStart = System.nanoTime();
+    }
+
+    /***
+     * End the current phase, if any.
+     ***/
+    public void end() {
+        if (current == null) {
+            return;
+        }
+        current.wall = System.nanoTime() - wallStart;
+        current.cpu = cpuStart < 0 ? -1 : cpuTime() - cpuStart;
+        current.bytes = bytesStart < 0 ? -1 : allocated() - bytesStart;
+        phases.add(current);
+        current = null;
+    }
+
+    /***
+     * Return a Scanner that hands on the tokens of scanner, counting them
+     * and adding up the wall time and allocation of each call, for
+     * endParse to take out of the parse phase.
+     ***/
+    public Scanner scanner(Scanner scanner) {
+        timingScanner = true;
+        return new Scanner() {
+            public Symbol next_token() throws Exception {
+                long bytes = allocated();
+                long wall = System.nanoTime();
+                Symbol tok = scanner.next_token();
+                scanWall += System.nanoTime() - wall;
+                if (bytes >= 0) {
+                    scanBytes += allocated() - bytes;
+                }
+                if (tok.sym != sym.EOF) {
+                    tokens++;
+                }
+                return tok;
+            }
+        };
+    }
+
+    /***
+     * End the parse phase, which the tokens from scanner() were pulled in,
+     * and move the time and allocation spent in the scanner to the scan
+     * phase before it (where the source was opened).  With a TokenStream
+     * the source is scanned when it is opened, so there is nothing to move.
+     ***/
+    public void endParse() {
+        Phase parse = current;
+        end();
+        int k = phases.size() - 2;
+        if (!timingScanner || parse == null || k < 0 ||
+            !phases.get(k).name.equals("scan")) {
+            return;
+        }
+        Phase scan = phases.get(k);
+        scan.wall += scanWall;
+        parse.wall -= scanWall;
+        if (scan.bytes >= 0 && parse.bytes >= 0) {
+            scan.bytes += scanBytes;
+            parse.bytes -= scanBytes;
+        }
+        scan.cpu = -1;
+        parse.cpu = -1;
+    }
+
+    private static long cpuTime() {
+        if (!threads.isCurrentThreadCpuTimeSupported() ||
+            !threads.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    private static long allocated() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean t =
+            (com.sun.management.ThreadMXBean)threads;
+        if (!t.isThreadAllocatedMemorySupported() ||
+            !t.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return t.getCurrentThreadAllocatedBytes();
+    }
+
+    /***
+     * Count the nodes of the tree under root, by class.  The tree is
+     * walked through the fields of the nodes, so that no node class needs
+     * to know about it.
+     ***/
+    public void countNodes(ASTnode root) {
+        Set<Object> seen =
+            Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        ArrayDeque<Object> todo = new ArrayDeque<Object>();
+        todo.push(root);
+        while (!todo.isEmpty()) {
+            Object node = todo.pop();
+            if (!(node instanceof ASTnode) || !seen.add(node)) {
+                continue;
+            }
+            nodes.merge(node.getClass().getName(), 1, Integer::sum);
+            try {
+                for (Field f : childFields(node.getClass())) {
+                    Object val = f.get(node);
+                    if (val instanceof Object[]) {
+                        for (Object kid : (Object[])val) {
+                            todo.push(kid);
+                        }
+                    } else if (val instanceof Collection) {
+                        todo.addAll((Collection<?>)val);
+                    } else if (val != null) {
+                        todo.push(val);
+                    }
+                }
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);  // made accessible
+            }
+        }
+    }
+
+    private static Field[] childFields(Class<?> c) {
+        Field[] fields = childFields.get(c);
+        if (fields == null) {
+            ArrayList<Field> list = new ArrayList<Field>();
+            for (Class<?> k = c; k != Object.class; k = k.getSuperclass()) {
+                for (Field f : k.getDeclaredFields()) {
+                    Class<?> type = f.getType();
+                    if (!Modifier.isStatic(f.getModifiers()) &&
+                        (ASTnode.class.isAssignableFrom(type) ||
+                         Collection.class.isAssignableFrom(type) ||
+                         (type.isArray() &&
+                          !type.getComponentType().isPrimitive()))) {
+                        f.setAccessible(true);
+                        list.add(f);
+                    }
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            childFields.put(c, fields);
+        }
+        return fields;
+    }
+
+    /***
+     * Count the labels and instructions in the (linked) code of ir.
+     ***/
+    public void countCode(Ir ir) {
+        for (IrFunction unit : ir.units()) {
+            InstrBuffer code = unit.code();
+            for (int i = 0; i < code.size(); i++) {
+                switch (code.kind(i)) {
+                case InstrBuffer.OP:
+                case InstrBuffer.INDEXED:
+                    instructions++;
+                    break;
+                case InstrBuffer.LABEL:
+                    labels++;
+                    break;
+                case InstrBuffer.LABELED:
+                    labels++;
+                    instructions++;
+                    break;
+                }
+            }
+        }
+    }
+
+    /***
+     * Report the stats of the compile of src: print them to out, or append
+     * them to file, if it is not null, as one line of JSON.
+     ***/
+    public void report(String src, PrintStream out, String file) {
+        end();
+        if (file == null) {
+            print(src, out);
+            return;
+        }
+        synchronized (CompileStats.class) {  // for -parallel
+            try (Writer w = new BufferedWriter(new FileWriter(file, true))) {
+                w.write(json(src));
+                w.write('\n');
+            } catch (IOException ex) {
+                out.println("could not write stats to " + file + ": " + ex);
+            }
+        }
+    }
+
+    private void print(String src, PrintStream out) {
+        out.println("stats for " + src + ":");
+        out.printf("  %-13s %10s %10s %10s%n", "phase", "wall ms", "cpu ms",
+                   "alloc MB");
+        for (Phase p : phases) {
+            out.printf("  %-13s %10.2f %10s %10s%n", p.name, p.wall / 1e6,
+                       p.cpu < 0 ? "-" : String.format("%.2f", p.cpu / 1e6),
+                       p.bytes < 0 ? "-"
+                                   : String.format("%.2f",
+                                                   p.bytes / 1048576.0));
+        }
+        int total = 0;
+        for (int n : nodes.values()) {
+            total += n;
+        }
+        out.println("  tokens " + tokens + ", AST nodes " + total +
+                    ", symbols " + symbols + ", scopes " + scopes +
+                    ", labels " + labels + ", instructions " +
+                    instructions);
+        for (Map.Entry<String,Integer> e : nodes.entrySet()) {
+            out.printf("    %-22s %8d%n", e.getKey(), e.getValue());
+        }
+    }
+
+    private String json(String src) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"source\":").append(quote(src));
+        sb.append(",\"phases\":[");
+        for (int k = 0; k < phases.size(); k++) {
+            Phase p = phases.get(k);
+            sb.append(k > 0 ? "," : "").append("{\"name\":")
+              .append(quote(p.name)).append(",\"wallNanos\":").append(p.wall)
+              .append(",\"cpuNanos\":").append(p.cpu)
+              .append(",\"allocatedBytes\":").append(p.bytes).append('}');
+        }
+        sb.append("],\"tokens\":").append(tokens);
+        sb.append(",\"symbols\":").append(symbols);
+        sb.append(",\"scopes\":").append(scopes);
+        sb.append(",\"labels\":").append(labels);
+        sb.append(",\"instructions\":").append(instructions);
+        sb.append(",\"nodes\":{");
+        String sep = "";
+        for (Map.Entry<String,Integer> e : nodes.entrySet()) {
+            sb.append(sep).append(quote(e.getKey())).append(':')
+              .append(e.getValue());
+            sep = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    // s as a JSON string
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
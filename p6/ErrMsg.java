@@ -2,10 +2,11 @@
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ * Messages and the err flag belong to the CompilationContext bound to the
+ * calling thread.
  */
 class ErrMsg {
-	private static boolean err = false;
-	
+
     /**
      * Generates a fatal error message.
      * @param lineNum line number for error location
@@ -13,8 +14,53 @@ class ErrMsg {
      * @param msg associated message for error
      */
     static void fatal(int lineNum, int charNum, String msg) {
-		err = true;
-        System.err.println(lineNum + ":" + charNum + " ****ERROR**** " + msg);
+        CompilationContext ctx = CompilationContext.current();
+        String text = lineNum + ":" + charNum + " ****ERROR**** " + msg;
+        if (ctx.holding) {
+            ctx.held.add(text);
+            return;
+        }
+        ctx.err = true;
+        ctx.errStream.println(text);
+    }
+
+    /**
+     * Starts holding back fatal error messages, unless an error has
+     * already been reported.  Used by the fused name analysis and type
+     * checking pass, so that a type error is only reported if there is no
+     * name error anywhere in the program, as with separate passes.
+     * @return true if messages are now held, false if an error has been
+     *         reported (and so there is no point in type checking)
+     */
+    static boolean hold() {
+        CompilationContext ctx = CompilationContext.current();
+        if (ctx.err) {
+            return false;
+        }
+        ctx.holding = true;
+        return true;
+    }
+
+    /**
+     * Stops holding back fatal error messages.
+     */
+    static void endHold() {
+        CompilationContext.current().holding = false;
+    }
+
+    /**
+     * Reports the messages held back, unless an error has been reported
+     * since; in either case forgets them.
+     */
+    static void releaseHeld() {
+        CompilationContext ctx = CompilationContext.current();
+        if (!ctx.err) {
+            for (String text : ctx.held) {
+                ctx.err = true;
+                ctx.errStream.println(text);
+            }
+        }
+        ctx.held.clear();
     }
 
     /**
@@ -24,13 +70,14 @@ class ErrMsg {
      * @param msg associated message for warning
      */
     static void warn(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ****WARNING**** " + msg);
+        CompilationContext.current().errStream.println(
+            lineNum + ":" + charNum + " ****WARNING**** " + msg);
     }
 	
     /**
      * Returns the err flag.
      */
     static boolean getErr() {
-        return err;
+        return CompilationContext.current().err;
     }
 }
@@ -0,0 +1,162 @@
+import java.util.*;
+
+/***
+ * The FlowGraph class is the control-flow graph of the code of one
+ * function: its basic blocks, in code order, linked to the blocks control
+ * can go to next.
+ *
+ * A block starts at a label, at the first instruction, and after every
+ * branch, jump or jr; a block ends with the instruction before the next
+ * one starts.  Calls (jal) return to the next instruction, so they do not
+ * end a block.
+ ***/
+public class FlowGraph {
+    private InstrBuffer myCode;
+    private ArrayList<BasicBlock> myBlocks = new ArrayList<BasicBlock>();
+    private IntMap<BasicBlock> myLabels = new IntMap<BasicBlock>();
+
+    public FlowGraph(InstrBuffer code) {
+        myCode = code;
+
+        int start = 0;
+        for (int k = 0; k < code.size(); k++) {
+            if (code.isLabel(k) && k > start) {
+                addBlock(start, k);
+                start = k;
+            }
+            if (code.isBranch(k) || code.isUnconditional(k)) {
+                addBlock(start, k+1);
+                start = k+1;
+            }
+        }
+        if (start < code.size()) {
+            addBlock(start, code.size());
+        }
+
+        for (BasicBlock block : myBlocks) {
+            int last = block.end() - 1;
+            if (code.isBranch(last)) {
+                BasicBlock target = blockAt(code.target(last));
+                if (target != null) {
+                    block.addSucc(target);
+                }
+            }
+            if (!code.isUnconditional(last) &&
+                block.index() + 1 < myBlocks.size()) {
+                block.addSucc(myBlocks.get(block.index() + 1));
+            }
+        }
+    }
+
+    private void addBlock(int start, int end) {
+        BasicBlock block = new BasicBlock(myBlocks.size(), start, end);
+        myBlocks.add(block);
+        for (int k = start; k < end && myCode.isLabel(k); k++) {
+            myLabels.put(key(myCode.arg(k, 0)), block);
+        }
+    }
+
+    /***
+     * Return the blocks, in code order.
+     ***/
+    public List<BasicBlock> blocks() {
+        return myBlocks;
+    }
+
+    /***
+     * Return the indices of the blocks control can reach from the first.
+     ***/
+    public BitSet reachable() {
+        BitSet seen = new BitSet();
+        ArrayDeque<BasicBlock> todo = new ArrayDeque<BasicBlock>();
+        if (!myBlocks.isEmpty()) {
+            seen.set(0);
+            todo.push(myBlocks.get(0));
+        }
+        while (!todo.isEmpty()) {
+            for (BasicBlock succ : todo.pop().succs()) {
+                if (!seen.get(succ.index())) {
+                    seen.set(succ.index());
+                    todo.push(succ);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /***
+     * Return the block that starts with the given label operand, or null.
+     ***/
+    public BasicBlock blockAt(long label) {
+        return myLabels.get(key(label));
+    }
+
+    // labels made by nextLabel and names in the pool are numbered apart
+    private static int key(long label) {
+        int val = InstrBuffer.value(label);
+        return InstrBuffer.tag(label) == InstrBuffer.LBL ? ~val : val;
+    }
+
+    /***
+     * Return the graph as one line per block, "B<n> [start, end) -> B<m> ...".
+     ***/
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (BasicBlock block : myBlocks) {
+            sb.append(block).append(" ->");
+            for (BasicBlock succ : block.succs()) {
+                sb.append(" B").append(succ.index());
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
+
+// **********************************************************************
+//   BasicBlock
+// **********************************************************************
+class BasicBlock {
+    private int myIndex;
+    private int myStart;  // first entry
+    private int myEnd;    // one past the last entry
+    private ArrayList<BasicBlock> mySuccs = new ArrayList<BasicBlock>();
+    private ArrayList<BasicBlock> myPreds = new ArrayList<BasicBlock>();
+
+    public BasicBlock(int index, int start, int end) {
+        myIndex = index;
+        myStart = start;
+        myEnd = end;
+    }
+
+    public int index() {
+        return myIndex;
+    }
+
+    public int start() {
+        return myStart;
+    }
+
+    public int end() {
+        return myEnd;
+    }
+
+    public List<BasicBlock> succs() {
+        return mySuccs;
+    }
+
+    public List<BasicBlock> preds() {
+        return myPreds;
+    }
+
+    void addSucc(BasicBlock succ) {
+        if (!mySuccs.contains(succ)) {
+            mySuccs.add(succ);
+            succ.myPreds.add(this);
+        }
+    }
+
+    public String toString() {
+        return "B" + myIndex + " [" + myStart + ", " + myEnd + ")";
+    }
+}
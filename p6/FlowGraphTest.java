@@ -0,0 +1,91 @@
+/***
+ * FlowGraphTest
+ * Checks the basic blocks and edges FlowGraph finds in a small function,
+ * and that the unreachable peephole rule removes only the block nothing
+ * goes to:
+ *
+ *   java FlowGraphTest
+ *
+ * exits with a nonzero status if anything differs.
+ ***/
+public class FlowGraphTest {
+    private static final long T0 = InstrBuffer.register("$t0");
+    private static final long V0 = InstrBuffer.register("$v0");
+    private static final long RA = InstrBuffer.register("$ra");
+    private static final long L1 = InstrBuffer.label(1);
+    private static final long L2 = InstrBuffer.label(2);
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        //  0      li   $t0, 1
+        //  1      beq  $t0, 0, .L1
+        //  2      li   $v0, 2
+        //  3      b    .L2
+        //  4      li   $v0, 3       (nothing goes here)
+        //  5  .L1:
+        //  6      li   $v0, 4
+        //  7  .L2:
+        //  8      jr   $ra
+        InstrBuffer code = new InstrBuffer(16);
+        op(code, Op.LI, T0, InstrBuffer.imm(1), InstrBuffer.NONE);
+        op(code, Op.BEQ, T0, InstrBuffer.imm(0), L1);
+        op(code, Op.LI, V0, InstrBuffer.imm(2), InstrBuffer.NONE);
+        op(code, Op.B, L2, InstrBuffer.NONE, InstrBuffer.NONE);
+        op(code, Op.LI, V0, InstrBuffer.imm(3), InstrBuffer.NONE);
+        label(code, L1);
+        op(code, Op.LI, V0, InstrBuffer.imm(4), InstrBuffer.NONE);
+        label(code, L2);
+        op(code, Op.JR, RA, InstrBuffer.NONE, InstrBuffer.NONE);
+
+        FlowGraph graph = new FlowGraph(code);
+        check("blocks", graph.toString(),
+              "B0 [0, 2) -> B3 B1\n" +
+              "B1 [2, 4) -> B4\n" +
+              "B2 [4, 5) -> B3\n" +
+              "B3 [5, 7) -> B4\n" +
+              "B4 [7, 9) ->\n");
+        check("preds of B3", preds(graph.blocks().get(3)), "B0 B2");
+        check("block at .L2", "B" + graph.blockAt(L2).index(), "B4");
+        check("reachable", graph.reachable().toString(), "{0, 1, 3, 4}");
+
+        new Peephole(Peephole.UNREACHABLE).optimize(code);
+        check("size after unreachable", "" + code.size(), "8");
+        check("entry 4 after unreachable", "" + code.kind(4), "" + InstrBuffer.LABEL);
+        check("blocks after unreachable", new FlowGraph(code).toString(),
+              "B0 [0, 2) -> B2 B1\n" +
+              "B1 [2, 4) -> B3\n" +
+              "B2 [4, 6) -> B3\n" +
+              "B3 [6, 8) ->\n");
+
+        if (failures > 0) {
+            System.exit(-1);
+        }
+        System.out.println("FlowGraphTest: ok");
+    }
+
+    private static void op(InstrBuffer code, Op op, long a1, long a2, long a3) {
+        code.add(InstrBuffer.OP, op, a1, a2, a3, -1);
+    }
+
+    private static void label(InstrBuffer code, long label) {
+        code.add(InstrBuffer.LABEL, null, label, InstrBuffer.NONE,
+                 InstrBuffer.NONE, -1);
+    }
+
+    private static String preds(BasicBlock block) {
+        StringBuilder sb = new StringBuilder();
+        for (BasicBlock pred : block.preds()) {
+            sb.append(sb.length() == 0 ? "B" : " B").append(pred.index());
+        }
+        return sb.toString();
+    }
+
+    private static void check(String what, String got, String expected) {
+        if (!got.equals(expected)) {
+            System.err.println(what + ": expected\n" + expected +
+                               "\nbut got\n" + got);
+            failures++;
+        }
+    }
+}
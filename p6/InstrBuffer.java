@@ -0,0 +1,233 @@
+import java.util.*;
+
+/***
+ * The InstrBuffer class holds the intermediate code of one function (see
+ * Ir) as compact records in parallel primitive arrays.  Entry i has a
+ * kind, an Op (for the kinds that have one), three operands and a
+ * comment:
+ *
+ *   OP        op a1, a2, a3
+ *   INDEXED   op a1, a3(a2)           a3 is the offset
+ *   LABEL     a1:                     a1 is the label
+ *   LABELED   a1: op a2
+ *   TEXT      a1                      copied to the output as it is
+ *
+ * An operand is a long whose high 32 bits are its tag and low 32 bits its
+ * value: a register number (REG), an immediate (IMM), a label made by
+ * Codegen.nextLabel (LBL, written out as .L<n>) or the id of a string in
+ * the program's string pool (SYM), such as the name of a function or a
+ * global, or a directive.  Unused operands are NONE (0).  A comment is the
+ * id of a string in the pool, or -1 for none.
+ *
+ * Registers are numbered as in the MIPS hardware, so $t0 is 8.
+ ***/
+public class InstrBuffer {
+    // the kinds of entries
+    public static final int OP = 0;
+    public static final int INDEXED = 1;
+    public static final int LABEL = 2;
+    public static final int LABELED = 3;
+    public static final int TEXT = 4;
+
+    // operand tags
+    public static final int NONE = 0;
+    public static final int REG = 1;
+    public static final int IMM = 2;
+    public static final int SYM = 3;
+    public static final int LBL = 4;
+
+    // the registers, by number
+    static final String[] REGISTERS = {
+        "$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+        "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+        "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+        "$t8", "$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra"
+    };
+    private static final HashMap<String,Integer> regNumbers =
+        new HashMap<String,Integer>();
+    static {
+        for (int k = 0; k < REGISTERS.length; k++) {
+            regNumbers.put(REGISTERS[k], k);
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    private byte[] kinds;
+    private byte[] ops;
+    private long[] args;      // three per entry
+    private int[] comments;
+    private int size = 0;
+
+    public InstrBuffer() {
+        this(64);
+    }
+
+    public InstrBuffer(int capacity) {
+        capacity = Math.max(capacity, 8);
+        kinds = new byte[capacity];
+        ops = new byte[capacity];
+        args = new long[3 * capacity];
+        comments = new int[capacity];
+    }
+
+    // ******************************************************************
+    // operands
+    // ******************************************************************
+
+    public static long reg(int number) {
+        return ((long)REG << 32) | number;
+    }
+
+    public static long imm(int val) {
+        return ((long)IMM << 32) | (val & 0xffffffffL);
+    }
+
+    public static long sym(int id) {
+        return ((long)SYM << 32) | id;
+    }
+
+    public static long label(int number) {
+        return ((long)LBL << 32) | number;
+    }
+
+    public static int tag(long operand) {
+        return (int)(operand >>> 32);
+    }
+
+    public static int value(long operand) {
+        return (int)operand;
+    }
+
+    /***
+     * Return the REG operand for a register name such as "$t0", or NONE if
+     * name is not a register.
+     ***/
+    public static long register(String name) {
+        Integer number = regNumbers.get(name);
+        return number == null ? NONE : reg(number);
+    }
+
+    // ******************************************************************
+    // entries
+    // ******************************************************************
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    public Op op(int i) {
+        return OPS[ops[i]];
+    }
+
+    // operand k (0 to 2) of entry i
+    public long arg(int i, int k) {
+        return args[3*i + k];
+    }
+
+    public int comment(int i) {
+        return comments[i];
+    }
+
+    /***
+     * Append an entry; op is ignored (may be null) for LABEL and TEXT.
+     ***/
+    public void add(int kind, Op op, long a1, long a2, long a3, int comment) {
+        if (size == kinds.length) {
+            grow();
+        }
+        kinds[size] = (byte)kind;
+        ops[size] = (byte)(op == null ? 0 : op.ordinal());
+        args[3*size] = a1;
+        args[3*size + 1] = a2;
+        args[3*size + 2] = a3;
+        comments[size] = comment;
+        size++;
+    }
+
+    /***
+     * Append a copy of entry i of from.
+     ***/
+    public void copy(InstrBuffer from, int i) {
+        add(from.kinds[i], from.op(i), from.arg(i, 0), from.arg(i, 1),
+            from.arg(i, 2), from.comments[i]);
+    }
+
+    /***
+     * Drop entry i, moving the ones after it down.
+     ***/
+    public void remove(int i) {
+        System.arraycopy(kinds, i+1, kinds, i, size - i - 1);
+        System.arraycopy(ops, i+1, ops, i, size - i - 1);
+        System.arraycopy(args, 3*(i+1), args, 3*i, 3*(size - i - 1));
+        System.arraycopy(comments, i+1, comments, i, size - i - 1);
+        size--;
+    }
+
+    /***
+     * Drop all of the entries from n on.
+     ***/
+    public void truncate(int n) {
+        size = Math.min(size, n);
+    }
+
+    /***
+     * Take over the entries of other, which must not be used afterwards.
+     ***/
+    public void replaceWith(InstrBuffer other) {
+        kinds = other.kinds;
+        ops = other.ops;
+        args = other.args;
+        comments = other.comments;
+        size = other.size;
+    }
+
+    private void grow() {
+        int capacity = 2 * kinds.length;
+        kinds = Arrays.copyOf(kinds, capacity);
+        ops = Arrays.copyOf(ops, capacity);
+        args = Arrays.copyOf(args, 3 * capacity);
+        comments = Arrays.copyOf(comments, capacity);
+    }
+
+    // ******************************************************************
+    // control flow
+    // ******************************************************************
+
+    /***
+     * Return true if entry i places a label.
+     ***/
+    public boolean isLabel(int i) {
+        return kinds[i] == LABEL || kinds[i] == LABELED;
+    }
+
+    /***
+     * Return true if entry i is a branch or jump to a label.
+     ***/
+    public boolean isBranch(int i) {
+        return kinds[i] == OP && op(i).isBranch();
+    }
+
+    /***
+     * Return true if control never goes on from entry i to the next one.
+     ***/
+    public boolean isUnconditional(int i) {
+        return kinds[i] == OP && op(i).isUnconditional();
+    }
+
+    /***
+     * Return the label a branch goes to (its last operand).
+     ***/
+    public long target(int i) {
+        for (int k = 2; k > 0; k--) {
+            if (arg(i, k) != NONE) {
+                return arg(i, k);
+            }
+        }
+        return arg(i, 0);
+    }
+}
@@ -0,0 +1,108 @@
+/***
+ * The IntMap class is a hash map from int keys to values that needs no
+ * boxing: keys and values sit in two parallel arrays and collisions are
+ * resolved by linear probing.
+ ***/
+public class IntMap<V> {
+    private int[] keys;
+    private Object[] vals;   // null means the slot is empty
+    private int size;
+
+    public IntMap() {
+        keys = new int[8];
+        vals = new Object[8];
+        size = 0;
+    }
+
+    /***
+     * Return the value for key, or null if there is none.
+     ***/
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V)vals[i];
+            }
+        }
+        return null;
+    }
+
+    /***
+     * Map key to val, which must not be null.
+     ***/
+    public void put(int key, V val) {
+        if (val == null)
+            throw new IllegalArgumentException();
+
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                vals[i] = val;
+                return;
+            }
+        }
+        keys[i] = key;
+        vals[i] = val;
+        if (2 * ++size > keys.length) {  // keep the table at most half full
+            resize();
+        }
+    }
+
+    /***
+     * Remove the value for key, if there is one.
+     ***/
+    public void remove(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (vals[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (vals[i] == null) {
+            return;
+        }
+        vals[i] = null;
+        size--;
+
+        // move later entries of the same run back into the hole so that
+        // no probe sequence is broken by it
+        for (int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                vals[i] = vals[j];
+                vals[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldVals = vals;
+        keys = new int[2 * oldKeys.length];
+        vals = new Object[2 * oldVals.length];
+        int mask = keys.length - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldVals[k] != null) {
+                int i = mix(oldKeys[k]) & mask;
+                while (vals[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[k];
+                vals[i] = oldVals[k];
+            }
+        }
+    }
+
+    // spread dense ids over the whole table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
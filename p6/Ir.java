@@ -0,0 +1,322 @@
+import java.util.*;
+
+/***
+ * The Ir class holds the intermediate code of a program: the entries
+ * recorded by Codegen, grouped into one IrFunction per function (and one
+ * for each run of code outside a function, such as global variables), in
+ * the order they were generated.  Nothing is printed until the whole
+ * program has been generated; MipsEmitter then writes the code out.
+ *
+ * The entries are finished MIPS instructions over machine registers, with
+ * pushes and pops already expanded, not three-address code over virtual
+ * registers.  This is enough for passes that rewrite the code in place,
+ * such as Peephole and FlowGraph; a register allocator or a dataflow
+ * analysis over values would first need a lowering to such a form.
+ *
+ * The labels, names, directives and comments the entries refer to are
+ * kept once each in the program's string pool.
+ *
+ * Each function numbers its labels from 0 and has string literal data of
+ * its own, so that its code does not depend on the functions before it;
+ * link then numbers the labels of the whole program in order and shares
+ * the data of each string literal among all the functions that use it.
+ * A function generated into an Ir of its own (on another thread, say)
+ * can be added with addFunction; link also moves its names into the pool
+ * of this Ir.
+ ***/
+public class Ir {
+    private ArrayList<IrFunction> units = new ArrayList<IrFunction>();
+    private IrFunction current = null;  // the function being generated
+    private NameTable pool = new NameTable();
+
+    /***
+     * Start recording the code of the function with the given name.
+     ***/
+    public void beginFunction(String name) {
+        current = new IrFunction(name, pool);
+        units.add(current);
+    }
+
+    /***
+     * Stop recording into the current function, which used the given
+     * number of labels.
+     ***/
+    public void endFunction(int labels) {
+        current.setLabels(labels);
+        current = null;
+    }
+
+    /***
+     * Add the already generated code of a function (see CodeCache and
+     * DeclListNode.codeGen).
+     ***/
+    public void addFunction(IrFunction unit) {
+        units.add(unit);
+    }
+
+    /***
+     * Return the function being generated, or null.
+     ***/
+    public IrFunction current() {
+        return current;
+    }
+
+    /***
+     * Return the buffer entries are recorded into: the current function's,
+     * or that of the code outside functions if there is no current
+     * function.
+     ***/
+    public InstrBuffer code() {
+        if (current != null) {
+            return current.code();
+        }
+        IrFunction last = units.isEmpty() ? null : units.get(units.size()-1);
+        if (last == null || last.name() != null) {
+            last = new IrFunction(null, pool);
+            units.add(last);
+        }
+        return last.code();
+    }
+
+    /***
+     * Return the functions and other code of the program, in order.
+     ***/
+    public List<IrFunction> units() {
+        return units;
+    }
+
+    public NameTable pool() {
+        return pool;
+    }
+
+    /***
+     * Return the operand for s: a register if s names one, an immediate if
+     * s is an int written the way Integer.toString writes it, NONE if s is
+     * empty, and otherwise s itself, interned in the pool.
+     ***/
+    public long operand(String s) {
+        if (s.isEmpty()) {
+            return InstrBuffer.NONE;
+        }
+        char c = s.charAt(0);
+        if (c == '$') {
+            long reg = InstrBuffer.register(s);
+            if (reg != InstrBuffer.NONE) {
+                return reg;
+            }
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            int start = c == '-' ? 1 : 0;
+            int len = s.length() - start;
+            if (len > 0 && len <= 10 &&
+                (s.charAt(start) != '0' || (len == 1 && start == 0))) {
+                long val = 0;
+                int k = start;
+                for (; k < s.length(); k++) {
+                    char d = s.charAt(k);
+                    if (d < '0' || d > '9') {
+                        break;
+                    }
+                    val = 10 * val + (d - '0');
+                }
+                if (start == 1) {
+                    val = -val;
+                }
+                if (k == s.length() && val >= Integer.MIN_VALUE &&
+                    val <= Integer.MAX_VALUE) {
+                    return InstrBuffer.imm((int)val);
+                }
+            }
+        }
+        return InstrBuffer.sym(pool.intern(s));
+    }
+
+    /***
+     * Give the labels of each function numbers of their own, in the order
+     * of the code, and drop the data of each string literal a function
+     * before it has already defined.  Must be called once, after all of
+     * the code has been generated and optimized.
+     ***/
+    public void link() {
+        HashMap<String,Integer> strings = new HashMap<String,Integer>();
+        int next = 0;
+        for (IrFunction unit : units) {
+            next = unit.link(next, strings, pool);
+        }
+    }
+
+    /***
+     * Return the id of comment in the pool, or -1 if it is empty.
+     ***/
+    public int comment(String comment) {
+        return comment.isEmpty() ? -1 : pool.intern(comment);
+    }
+}
+
+// **********************************************************************
+//   IrFunction
+// **********************************************************************
+class IrFunction {
+    private String myName;  // null for code outside functions
+    private NameTable myPool;  // where the names in the code are
+    private InstrBuffer myCode = new InstrBuffer();
+    private int myLabels = 0;  // labels used, numbered from 0
+
+    // the string literals defined, in the order of their labels
+    private ArrayList<StringDef> myStrings = new ArrayList<StringDef>();
+
+    static class StringDef {
+        final int label;
+        final String value;
+
+        StringDef(int label, String value) {
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    public IrFunction(String name, NameTable pool) {
+        myName = name;
+        myPool = pool;
+    }
+
+    public String name() {
+        return myName;
+    }
+
+    public InstrBuffer code() {
+        return myCode;
+    }
+
+    public int labels() {
+        return myLabels;
+    }
+
+    public void setLabels(int labels) {
+        myLabels = labels;
+    }
+
+    public List<StringDef> strings() {
+        return myStrings;
+    }
+
+    /***
+     * Record that the data of string literal value has the given label.
+     ***/
+    public void addString(int label, String value) {
+        myStrings.add(new StringDef(label, value));
+    }
+
+    /***
+     * Drop every label (see Codegen.nextLabel) that is placed but never
+     * branched to or loaded.  A label that is never placed is never written
+     * out at all, since until then it is just a number.  Must be called
+     * before link, while every label used here is also placed here.
+     ***/
+    public void dropDeadLabels() {
+        BitSet used = new BitSet();
+        for (int i = 0; i < myCode.size(); i++) {
+            if (myCode.kind(i) == InstrBuffer.LABEL) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                long arg = myCode.arg(i, k);
+                if (InstrBuffer.tag(arg) == InstrBuffer.LBL) {
+                    used.set(InstrBuffer.value(arg));
+                }
+            }
+        }
+
+        InstrBuffer kept = new InstrBuffer(myCode.size());
+        for (int i = 0; i < myCode.size(); i++) {
+            long label = myCode.arg(i, 0);
+            if (myCode.kind(i) != InstrBuffer.LABEL ||
+                InstrBuffer.tag(label) != InstrBuffer.LBL ||
+                used.get(InstrBuffer.value(label))) {
+                kept.copy(myCode, i);
+            }
+        }
+        if (kept.size() < myCode.size()) {
+            myCode.replaceWith(kept);
+        }
+    }
+
+    /***
+     * Number the labels of this function from next on, except that a
+     * string literal in strings (from the label of its data to that label)
+     * keeps the label it already has and loses its data here; add the
+     * string literals defined here to strings; and move the names in the
+     * code to pool.  Return the number after the last label used.
+     *
+     * The data of a string literal is the label with one text entry before
+     * it and two after it (see Codegen.stringLabel), which no change to the
+     * code splits up.
+     ***/
+    public int link(int next, HashMap<String,Integer> strings,
+                    NameTable pool) {
+        int[] map = new int[myLabels];
+        BitSet dropped = new BitSet();  // the labels of the data dropped
+        boolean same = true;
+        int s = 0;
+        for (int label = 0; label < myLabels; label++) {
+            if (s < myStrings.size() && myStrings.get(s).label == label) {
+                StringDef def = myStrings.get(s++);
+                Integer shared = strings.get(def.value);
+                if (shared != null) {
+                    map[label] = shared;
+                    dropped.set(label);
+                    same = false;
+                    continue;
+                }
+                strings.put(def.value, next);
+            }
+            map[label] = next++;
+            same &= map[label] == label;
+        }
+        int[] ids = null;  // the id in pool of each name in myPool
+        if (myPool != pool) {
+            ids = new int[myPool.size()];
+            for (int id = 0; id < ids.length; id++) {
+                ids[id] = pool.intern(myPool.name(id));
+            }
+            myPool = pool;
+            same = false;
+        }
+        if (same) {
+            return next;
+        }
+
+        InstrBuffer linked = new InstrBuffer(myCode.size());
+        for (int i = 0; i < myCode.size(); i++) {
+            long label = myCode.arg(i, 0);
+            if (myCode.kind(i) == InstrBuffer.LABEL &&
+                InstrBuffer.tag(label) == InstrBuffer.LBL &&
+                dropped.get(InstrBuffer.value(label))) {
+                linked.truncate(linked.size() - 1);  // the entry before it
+                i += 2;                              // and the two after it
+                continue;
+            }
+            int comment = myCode.comment(i);
+            linked.add(myCode.kind(i), myCode.op(i),
+                       relink(myCode.arg(i, 0), map, ids),
+                       relink(myCode.arg(i, 1), map, ids),
+                       relink(myCode.arg(i, 2), map, ids),
+                       comment < 0 || ids == null ? comment : ids[comment]);
+        }
+        myCode.replaceWith(linked);
+        return next;
+    }
+
+    // arg with its label mapped through map, or its name through ids
+    // (unless that is null)
+    private static long relink(long arg, int[] map, int[] ids) {
+        switch (InstrBuffer.tag(arg)) {
+        case InstrBuffer.LBL:
+            return InstrBuffer.label(map[InstrBuffer.value(arg)]);
+        case InstrBuffer.SYM:
+            return ids == null ? arg
+                               : InstrBuffer.sym(ids[InstrBuffer.value(arg)]);
+        default:
+            return arg;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/***
+ * The MipsEmitter class writes the intermediate code of a program (see Ir)
+ * out as MIPS assembly, one line per instruction or label; text entries
+ * are copied as they are.
+ *
+ * The text of each function is formatted straight into one byte buffer,
+ * which is reused from function to function and written to the output
+ * channel once the function is done.  Op codes and registers already have
+ * their bytes, each string in the pool is encoded once, the first time it
+ * is written, and a label is only turned into text (.L<n>) here.
+ ***/
+public class MipsEmitter {
+    // for pretty printing generated code
+    private static final int MAXLEN = 4;
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final byte[] LABEL_PREFIX = ".L".getBytes();
+    private static final byte[][] REGISTERS =
+        new byte[InstrBuffer.REGISTERS.length][];
+    static {
+        for (int k = 0; k < REGISTERS.length; k++) {
+            REGISTERS[k] = InstrBuffer.REGISTERS[k].getBytes();
+        }
+    }
+
+    private WritableByteChannel out;
+    private byte[] buf = new byte[1 << 16];
+    private int len = 0;
+    private ByteBuffer view = ByteBuffer.wrap(buf);
+    private NameTable pool;
+    private byte[][] strings = new byte[64][];  // bytes of pool strings
+
+    public MipsEmitter(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    /***
+     * Write out all of the code of ir, in order.
+     ***/
+    public void emit(Ir ir) throws IOException {
+        pool = ir.pool();
+        for (IrFunction unit : ir.units()) {
+            InstrBuffer code = unit.code();
+            for (int i = 0; i < code.size(); i++) {
+                format(code, i);
+            }
+            flush();
+        }
+    }
+
+    /***
+     * Format one entry into the buffer:
+     *     op     a1, a2, a3		# comment
+     *     op     a1, offset(a2)	# comment
+     * label:		# comment
+     * label:	op     a1	# comment
+     ***/
+    private void format(InstrBuffer code, int i) {
+        int comment = code.comment(i);
+        switch (code.kind(i)) {
+        case InstrBuffer.OP:
+            put('\t');
+            put(code.op(i).bytes);
+            if (code.arg(i, 0) != InstrBuffer.NONE) {
+                pad(code.op(i));
+                operand(code.arg(i, 0));
+                if (code.arg(i, 1) != InstrBuffer.NONE) {
+                    put(',');
+                    put(' ');
+                    operand(code.arg(i, 1));
+                    if (code.arg(i, 2) != InstrBuffer.NONE) {
+                        put(',');
+                        put(' ');
+                        operand(code.arg(i, 2));
+                    }
+                }
+            }
+            if (comment >= 0) {
+                put('\t');
+                put('\t');
+                comment(comment);
+            }
+            put(NEWLINE);
+            break;
+
+        case InstrBuffer.INDEXED:
+            put('\t');
+            put(code.op(i).bytes);
+            pad(code.op(i));
+            operand(code.arg(i, 0));
+            put(',');
+            put(' ');
+            operand(code.arg(i, 2));
+            put('(');
+            operand(code.arg(i, 1));
+            put(')');
+            if (comment >= 0) {
+                put('\t');
+                comment(comment);
+            }
+            put(NEWLINE);
+            break;
+
+        case InstrBuffer.LABEL:
+            operand(code.arg(i, 0));
+            put(':');
+            if (comment >= 0) {
+                put('\t');
+                put('\t');
+                comment(comment);
+            }
+            put(NEWLINE);
+            break;
+
+        case InstrBuffer.LABELED:
+            operand(code.arg(i, 0));
+            put(':');
+            put('\t');
+            put(code.op(i).bytes);
+            if (code.arg(i, 1) != InstrBuffer.NONE) {
+                pad(code.op(i));
+                operand(code.arg(i, 1));
+            }
+            if (comment >= 0) {
+                put('\t');
+                comment(comment);
+            }
+            put(NEWLINE);
+            break;
+
+        case InstrBuffer.TEXT:
+            operand(code.arg(i, 0));
+            break;
+        }
+    }
+
+    // write "# comment"
+    private void comment(int id) {
+        put('#');
+        put(' ');
+        put(string(id));
+    }
+
+    private void operand(long operand) {
+        int val = InstrBuffer.value(operand);
+        switch (InstrBuffer.tag(operand)) {
+        case InstrBuffer.REG:
+            put(REGISTERS[val]);
+            break;
+        case InstrBuffer.IMM:
+            putInt(val);
+            break;
+        case InstrBuffer.LBL:
+            put(LABEL_PREFIX);
+            putInt(val);
+            break;
+        case InstrBuffer.SYM:
+            put(string(val));
+            break;
+        }
+    }
+
+    // the bytes of pool string id
+    private byte[] string(int id) {
+        if (id >= strings.length) {
+            byte[][] bigger = new byte[Math.max(2 * strings.length, id + 1)][];
+            System.arraycopy(strings, 0, bigger, 0, strings.length);
+            strings = bigger;
+        }
+        if (strings[id] == null) {
+            strings[id] = pool.name(id).getBytes();
+        }
+        return strings[id];
+    }
+
+    // line the operands up after an op code
+    private void pad(Op op) {
+        for (int k = op.text.length(); k < MAXLEN + 2; k++) {
+            put(' ');
+        }
+    }
+
+    private void putInt(int val) {
+        if (val == Integer.MIN_VALUE) {
+            put("-2147483648".getBytes());
+            return;
+        }
+        if (val < 0) {
+            put('-');
+            val = -val;
+        }
+        ensure(10);
+        int end = len + digits(val);
+        for (int k = end - 1; k >= len; k--) {
+            buf[k] = (byte)('0' + val % 10);
+            val /= 10;
+        }
+        len = end;
+    }
+
+    private static int digits(int val) {
+        int n = 1;
+        while (val >= 10) {
+            val /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buf[len++] = (byte)c;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            byte[] bigger = new byte[Math.max(2 * buf.length, len + n)];
+            System.arraycopy(buf, 0, bigger, 0, len);
+            buf = bigger;
+            view = ByteBuffer.wrap(buf);
+        }
+    }
+
+    // write out the buffer and empty it
+    private void flush() throws IOException {
+        view.clear();
+        view.limit(len);
+        while (view.hasRemaining()) {
+            out.write(view);
+        }
+        len = 0;
+    }
+}
@@ -0,0 +1,788 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/***
+ * MipsSim
+ * Runs the MIPS code P6 generates, without SPIM, and counts what it did:
+ *
+ *   java MipsSim [-limit=N] file.s [input]
+ *
+ * runs file.s from main, reading syscall input from the file input (or
+ * stdin) and writing the program's output to stdout.  The number of
+ * instructions executed, loads, stores and calls, and the most stack
+ * the program used, are then written to stderr.  -limit stops a program
+ * once it has run N instructions, before it runs another.
+ *
+ * Only what P6 emits is handled: the ops of Op, in the operand forms
+ * Codegen and SPIM use (two-operand "add rd, rt" is "add rd, rd, rt";
+ * the last operand of arithmetic, set and branch ops may be an
+ * immediate), the .text, .data, .globl, .align, .word, .space and
+ * .asciiz directives, and syscalls 1 (print int), 4 (print string),
+ * 5 (read int) and 10 (exit).  Arithmetic does not trap on overflow.
+ *
+ * The source is assembled once into parallel int arrays, one entry per
+ * instruction: a decoded op code that also says whether the last operand
+ * is a register or an immediate, and three operands (register numbers,
+ * immediates, and the index of the target instruction for branches).
+ * run then dispatches on the op code in one loop.  Registers hold plain
+ * ints; a return address is an instruction index.  Words on the stack
+ * are kept in an int array; strings and other data in a byte array at
+ * the address SPIM gives the data segment.  main is called as SPIM's
+ * startup code would, and the program ends when it returns or exits.
+ ***/
+public class MipsSim {
+    // decoded op codes; an immediate form is its register form + 1
+    private static final int ADD = 0, SUB = 2, AND = 4, OR = 6, XOR = 8,
+        SLL = 10, SRL = 12, SRA = 14, SEQ = 16, SNE = 18, SLT = 20,
+        SGT = 22, SLE = 24, SGE = 26, BEQ = 28, BNE = 30, BLT = 32,
+        BGT = 34, BLE = 36, BGE = 38;
+    private static final int MULT = 40, DIV = 41, DIV3 = 42, MFLO = 43,
+        MFHI = 44, NEG = 45, NOT = 46, MOVE = 47, LI = 48, LW = 49, SW = 50,
+        JUMP = 51, JAL = 52, JR = 53, SYSCALL = 54, HALT = 55;
+
+    private static final int V0 = 2, A0 = 4, SP = 29, RA = 31;
+
+    // where SPIM puts the data segment and starts the stack
+    private static final int DATA_BASE = 0x10010000;
+    private static final int STACK_START = 0x7fffeffc;
+    private static final int STACK_WORDS = 1 << 20;
+    private static final int STACK_BASE =
+        STACK_START + 4 - 4 * STACK_WORDS;
+
+    // the program
+    private int[] ops;
+    private int[] as;
+    private int[] bs;
+    private int[] cs;
+    private int[] lines;  // the source line of each instruction
+    private int size;
+    private int entry;    // the index of main
+    private byte[] data;
+
+    // the state of a run
+    private int[] regs = new int[32];
+    private int lo;
+    private int hi;
+    private int[] stack;
+    private long limit = Long.MAX_VALUE;
+    private InputStream in;
+    private PrintStream out;
+
+    // the counts of the last run
+    private long instructions;
+    private long loads;
+    private long stores;
+    private long calls;
+    private int minSp;
+    private boolean stopped;  // by the limit
+
+    public static void main(String[] args) throws IOException {
+        long limit = Long.MAX_VALUE;
+        int k = 0;
+        if (k < args.length && args[k].startsWith("-limit=")) {
+            limit = Long.parseLong(args[k].substring("-limit=".length()));
+            k++;
+        }
+        if (args.length - k < 1 || args.length - k > 2) {
+            System.err.println("usage: java MipsSim [-limit=N] file.s " +
+                               "[input]");
+            System.exit(-1);
+        }
+
+        MipsSim sim = null;
+        try {
+            sim = assemble(new String(Files.readAllBytes(Paths.get(args[k]))));
+        } catch (IOException ex) {
+            System.err.println("file " + args[k] + " could not be read");
+            System.exit(-1);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(args[k] + ": " + ex.getMessage());
+            System.exit(-1);
+        }
+        sim.limit = limit;
+        InputStream input = null;
+        try {
+            input = args.length - k == 2
+                ? new BufferedInputStream(new FileInputStream(args[k+1]))
+                : new BufferedInputStream(System.in);
+        } catch (FileNotFoundException ex) {
+            System.err.println("file " + args[k+1] + " not found");
+            System.exit(-1);
+        }
+        PrintStream output = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                                     1 << 16), false);
+        boolean ok = true;
+        try {
+            sim.run(input, output);
+        } catch (IllegalStateException ex) {
+            output.flush();
+            System.err.println(args[k] + ": " + ex.getMessage());
+            ok = false;
+        }
+        output.flush();
+        System.err.println("instructions " + sim.instructions());
+        System.err.println("loads        " + sim.loads());
+        System.err.println("stores       " + sim.stores());
+        System.err.println("calls        " + sim.calls());
+        System.err.println("stack bytes  " + sim.maxStackDepth());
+        if (!ok) {
+            System.exit(-1);
+        }
+    }
+
+    // ******************************************************************
+    // running
+    // ******************************************************************
+
+    /***
+     * Stop the next run after the given number of instructions.
+     ***/
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /***
+     * Run the program from main, with syscall input from in and output to
+     * out, until main returns or the program exits.  Throws
+     * IllegalStateException, giving the source line, if the program goes
+     * wrong (a bad address, division by zero, an unknown syscall) or runs
+     * past the limit.
+     ***/
+    public void run(InputStream in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+        regs = new int[32];
+        regs[SP] = STACK_START;
+        regs[RA] = size;  // the HALT after the last instruction
+        stack = new int[STACK_WORDS];
+        instructions = loads = stores = calls = 0;
+        stopped = false;
+        minSp = STACK_START;
+
+        int[] ops = this.ops, as = this.as, bs = this.bs, cs = this.cs;
+        int[] r = regs;
+        long count = 0;
+        int pc = entry;
+        int i = pc;
+        try {
+        loop:
+            for (;;) {
+                i = pc++;
+                if (++count > limit && ops[i] != HALT) {
+                    count--;  // not run
+                    stopped = true;
+                    throw new IllegalStateException(
+                        "stopped after " + limit + " instructions");
+                }
+                switch (ops[i]) {
+                case ADD:     r[as[i]] = r[bs[i]] + r[cs[i]]; break;
+                case ADD+1:   r[as[i]] = r[bs[i]] + cs[i]; break;
+                case SUB:     r[as[i]] = r[bs[i]] - r[cs[i]]; break;
+                case SUB+1:   r[as[i]] = r[bs[i]] - cs[i]; break;
+                case AND:     r[as[i]] = r[bs[i]] & r[cs[i]]; break;
+                case AND+1:   r[as[i]] = r[bs[i]] & cs[i]; break;
+                case OR:      r[as[i]] = r[bs[i]] | r[cs[i]]; break;
+                case OR+1:    r[as[i]] = r[bs[i]] | cs[i]; break;
+                case XOR:     r[as[i]] = r[bs[i]] ^ r[cs[i]]; break;
+                case XOR+1:   r[as[i]] = r[bs[i]] ^ cs[i]; break;
+                case SLL:     r[as[i]] = r[bs[i]] << r[cs[i]]; break;
+                case SLL+1:   r[as[i]] = r[bs[i]] << cs[i]; break;
+                case SRL:     r[as[i]] = r[bs[i]] >>> r[cs[i]]; break;
+                case SRL+1:   r[as[i]] = r[bs[i]] >>> cs[i]; break;
+                case SRA:     r[as[i]] = r[bs[i]] >> r[cs[i]]; break;
+                case SRA+1:   r[as[i]] = r[bs[i]] >> cs[i]; break;
+                case SEQ:     r[as[i]] = r[bs[i]] == r[cs[i]] ? 1 : 0; break;
+                case SEQ+1:   r[as[i]] = r[bs[i]] == cs[i] ? 1 : 0; break;
+                case SNE:     r[as[i]] = r[bs[i]] != r[cs[i]] ? 1 : 0; break;
+                case SNE+1:   r[as[i]] = r[bs[i]] != cs[i] ? 1 : 0; break;
+                case SLT:     r[as[i]] = r[bs[i]] < r[cs[i]] ? 1 : 0; break;
+                case SLT+1:   r[as[i]] = r[bs[i]] < cs[i] ? 1 : 0; break;
+                case SGT:     r[as[i]] = r[bs[i]] > r[cs[i]] ? 1 : 0; break;
+                case SGT+1:   r[as[i]] = r[bs[i]] > cs[i] ? 1 : 0; break;
+                case SLE:     r[as[i]] = r[bs[i]] <= r[cs[i]] ? 1 : 0; break;
+                case SLE+1:   r[as[i]] = r[bs[i]] <= cs[i] ? 1 : 0; break;
+                case SGE:     r[as[i]] = r[bs[i]] >= r[cs[i]] ? 1 : 0; break;
+                case SGE+1:   r[as[i]] = r[bs[i]] >= cs[i] ? 1 : 0; break;
+                case BEQ:     if (r[as[i]] == r[bs[i]]) pc = cs[i]; break;
+                case BEQ+1:   if (r[as[i]] == bs[i]) pc = cs[i]; break;
+                case BNE:     if (r[as[i]] != r[bs[i]]) pc = cs[i]; break;
+                case BNE+1:   if (r[as[i]] != bs[i]) pc = cs[i]; break;
+                case BLT:     if (r[as[i]] < r[bs[i]]) pc = cs[i]; break;
+                case BLT+1:   if (r[as[i]] < bs[i]) pc = cs[i]; break;
+                case BGT:     if (r[as[i]] > r[bs[i]]) pc = cs[i]; break;
+                case BGT+1:   if (r[as[i]] > bs[i]) pc = cs[i]; break;
+                case BLE:     if (r[as[i]] <= r[bs[i]]) pc = cs[i]; break;
+                case BLE+1:   if (r[as[i]] <= bs[i]) pc = cs[i]; break;
+                case BGE:     if (r[as[i]] >= r[bs[i]]) pc = cs[i]; break;
+                case BGE+1:   if (r[as[i]] >= bs[i]) pc = cs[i]; break;
+                case MULT: {
+                    long p = (long)r[as[i]] * r[bs[i]];
+                    lo = (int)p;
+                    hi = (int)(p >>> 32);
+                    break;
+                }
+                case DIV:
+                    lo = r[as[i]] / r[bs[i]];
+                    hi = r[as[i]] % r[bs[i]];
+                    break;
+                case DIV3:    r[as[i]] = r[bs[i]] / r[cs[i]]; break;
+                case MFLO:    r[as[i]] = lo; break;
+                case MFHI:    r[as[i]] = hi; break;
+                case NEG:     r[as[i]] = -r[bs[i]]; break;
+                case NOT:     r[as[i]] = ~r[bs[i]]; break;
+                case MOVE:    r[as[i]] = r[bs[i]]; break;
+                case LI:      r[as[i]] = bs[i]; break;
+                case LW:
+                    r[as[i]] = load(r[bs[i]] + cs[i]);
+                    loads++;
+                    break;
+                case SW:
+                    store(r[bs[i]] + cs[i], r[as[i]]);
+                    stores++;
+                    break;
+                case JUMP:    pc = as[i]; break;
+                case JAL:
+                    r[RA] = pc;
+                    pc = as[i];
+                    calls++;
+                    break;
+                case JR:
+                    pc = r[as[i]];
+                    if (pc < 0 || pc > size) {
+                        throw new IllegalStateException("jump to " + pc);
+                    }
+                    break;
+                case SYSCALL:
+                    if (!syscall()) {
+                        break loop;
+                    }
+                    break;
+                case HALT:
+                    count--;  // not an instruction of the program
+                    break loop;
+                }
+                if (r[SP] < minSp) {
+                    minSp = r[SP];
+                }
+            }
+        } catch (ArithmeticException ex) {
+            throw fault(i, "division by zero");
+        } catch (IllegalStateException ex) {
+            throw fault(i, ex.getMessage());
+        } finally {
+            instructions = count;
+            out.flush();
+        }
+    }
+
+    private IllegalStateException fault(int i, String msg) {
+        String where = i < size ? "line " + lines[i] + ": " : "";
+        return new IllegalStateException(where + msg);
+    }
+
+    private int load(int addr) {
+        if ((addr & 3) == 0 && addr >= STACK_BASE && addr <= STACK_START) {
+            return stack[(addr - STACK_BASE) >> 2];
+        }
+        int d = dataOffset(addr);
+        return (data[d] & 0xff) | ((data[d+1] & 0xff) << 8) |
+               ((data[d+2] & 0xff) << 16) | (data[d+3] << 24);
+    }
+
+    private void store(int addr, int val) {
+        if ((addr & 3) == 0 && addr >= STACK_BASE && addr <= STACK_START) {
+            stack[(addr - STACK_BASE) >> 2] = val;
+            return;
+        }
+        int d = dataOffset(addr);
+        data[d] = (byte)val;
+        data[d+1] = (byte)(val >> 8);
+        data[d+2] = (byte)(val >> 16);
+        data[d+3] = (byte)(val >> 24);
+    }
+
+    // the offset in data of the word at addr
+    private int dataOffset(int addr) {
+        int d = addr - DATA_BASE;
+        if ((addr & 3) != 0 || d < 0 || d + 4 > data.length) {
+            if (addr < STACK_BASE + 4 && addr >= STACK_BASE - (1 << 16)) {
+                throw new IllegalStateException("stack overflow");
+            }
+            throw new IllegalStateException(
+                "bad address 0x" + Integer.toHexString(addr));
+        }
+        return d;
+    }
+
+    // do the syscall in $v0; return false for exit
+    private boolean syscall() {
+        switch (regs[V0]) {
+        case 1:
+            out.print(regs[A0]);
+            return true;
+        case 4:
+            for (int d = regs[A0] - DATA_BASE; ; d++) {
+                if (d < 0 || d >= data.length) {
+                    throw new IllegalStateException("bad string address");
+                }
+                if (data[d] == 0) {
+                    break;
+                }
+                out.write(data[d]);
+            }
+            return true;
+        case 5:
+            regs[V0] = readInt();
+            return true;
+        case 10:
+            return false;
+        default:
+            throw new IllegalStateException("unknown syscall " + regs[V0]);
+        }
+    }
+
+    // the next integer of the input, or 0 at the end of it
+    private int readInt() {
+        try {
+            int c = in.read();
+            while (c >= 0 && Character.isWhitespace(c)) {
+                c = in.read();
+            }
+            boolean neg = c == '-';
+            if (neg) {
+                c = in.read();
+            }
+            int val = 0;
+            while (c >= '0' && c <= '9') {
+                val = 10 * val + (c - '0');
+                c = in.read();
+            }
+            return neg ? -val : val;
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot read input: " + ex);
+        }
+    }
+
+    /***
+     * Return the counts of the last run: the instructions executed, the
+     * words loaded and stored, and the calls made.
+     ***/
+    public long instructions() {
+        return instructions;
+    }
+
+    public long loads() {
+        return loads;
+    }
+
+    public long stores() {
+        return stores;
+    }
+
+    public long calls() {
+        return calls;
+    }
+
+    /***
+     * Return true if the last run was stopped by the limit, after running
+     * exactly that many instructions.
+     ***/
+    public boolean stopped() {
+        return stopped;
+    }
+
+    /***
+     * Return the most bytes of stack the last run used.
+     ***/
+    public int maxStackDepth() {
+        return STACK_START - minSp;
+    }
+
+    // ******************************************************************
+    // assembling
+    // ******************************************************************
+
+    private MipsSim() {
+    }
+
+    /***
+     * Assemble the MIPS source text.  Throws IllegalArgumentException,
+     * giving the line, for anything outside the subset above.
+     ***/
+    public static MipsSim assemble(String text) {
+        MipsSim sim = new MipsSim();
+        ArrayList<String> code = new ArrayList<String>();
+        ArrayList<Integer> codeLines = new ArrayList<Integer>();
+        HashMap<String,Integer> textLabels = new HashMap<String,Integer>();
+        HashMap<String,Integer> dataLabels = new HashMap<String,Integer>();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        // first pass: labels, data, and the text of each instruction
+        String[] src = text.split("\n", -1);
+        boolean inText = true;
+        for (int n = 0; n < src.length; n++) {
+            try {
+                String line = stripComment(src[n]).trim();
+                while (!line.isEmpty()) {
+                    int colon = labelEnd(line);
+                    if (colon > 0) {
+                        String label = line.substring(0, colon);
+                        if (textLabels.containsKey(label) ||
+                            dataLabels.containsKey(label)) {
+                            throw new IllegalArgumentException(
+                                "label " + label + " defined twice");
+                        }
+                        if (inText) {
+                            textLabels.put(label, code.size());
+                        } else {
+                            dataLabels.put(label, DATA_BASE + data.size());
+                        }
+                        line = line.substring(colon + 1).trim();
+                    } else if (line.startsWith(".")) {
+                        line = directive(line, data);
+                        if (line == null) {
+                            inText = true;
+                            line = "";
+                        } else if (line == DATA) {
+                            inText = false;
+                            line = "";
+                        }
+                    } else {
+                        if (!inText) {
+                            throw new IllegalArgumentException(
+                                "instruction in .data");
+                        }
+                        code.add(line);
+                        codeLines.add(n + 1);
+                        line = "";
+                    }
+                }
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": " +
+                                                   ex.getMessage());
+            }
+        }
+
+        // second pass: decode the instructions
+        sim.size = code.size();
+        sim.ops = new int[sim.size + 1];
+        sim.as = new int[sim.size + 1];
+        sim.bs = new int[sim.size + 1];
+        sim.cs = new int[sim.size + 1];
+        sim.lines = new int[sim.size];
+        sim.data = data.toByteArray();
+        for (int i = 0; i < sim.size; i++) {
+            sim.lines[i] = codeLines.get(i);
+            try {
+                sim.decode(i, code.get(i), textLabels, dataLabels);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("line " + sim.lines[i] +
+                                                   ": " + ex.getMessage());
+            }
+        }
+        sim.ops[sim.size] = HALT;
+
+        Integer main = textLabels.get("main");
+        if (main == null) {
+            throw new IllegalArgumentException("no main");
+        }
+        sim.entry = main;
+        return sim;
+    }
+
+    private static final String DATA = ".data";
+
+    // Handle the directive at the start of line; return what is left of
+    // the line, or null after .text, or DATA after .data.
+    private static String directive(String line, ByteArrayOutputStream data) {
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        String name = line.substring(0, end);
+        String rest = line.substring(end).trim();
+        switch (name) {
+        case ".text":
+            return null;
+        case ".data":
+            return DATA;
+        case ".globl":
+            return "";
+        case ".align": {
+            int align = 1 << Integer.parseInt(rest);
+            while (data.size() % align != 0) {
+                data.write(0);
+            }
+            return "";
+        }
+        case ".space":
+            for (int k = parseInt(rest); k > 0; k--) {
+                data.write(0);
+            }
+            return "";
+        case ".word":
+            for (String word : rest.split(",")) {
+                int val = parseInt(word.trim());
+                for (int k = 0; k < 4; k++) {
+                    data.write(val >> (8 * k));
+                }
+            }
+            return "";
+        case ".asciiz":
+            // Codegen puts the .text after it on the same line
+            return rest.substring(string(rest, data)).trim();
+        default:
+            throw new IllegalArgumentException("unknown directive " + name);
+        }
+    }
+
+    // add the quoted string at the start of s, and a NUL, to data; return
+    // the index after the closing quote
+    private static int string(String s, ByteArrayOutputStream data) {
+        if (!s.startsWith("\"")) {
+            throw new IllegalArgumentException("no string after .asciiz");
+        }
+        int k = 1;
+        for (; k < s.length() && s.charAt(k) != '"'; k++) {
+            char c = s.charAt(k);
+            if (c == '\\' && k + 1 < s.length()) {
+                c = s.charAt(++k);
+                switch (c) {
+                case 'n': c = '\n'; break;
+                case 't': c = '\t'; break;
+                case '0': c = '\0'; break;
+                default:  break;  // \" \' \\ stand for themselves
+                }
+            }
+            data.write(c);
+        }
+        if (k == s.length()) {
+            throw new IllegalArgumentException("unterminated string");
+        }
+        data.write(0);
+        return k + 1;
+    }
+
+    // line without its comment, if any
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int k = 0; k < line.length(); k++) {
+            char c = line.charAt(k);
+            if (c == '"' && (k == 0 || line.charAt(k-1) != '\\')) {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return line.substring(0, k);
+            }
+        }
+        return line;
+    }
+
+    // the index of the colon after a label at the start of line, or -1
+    private static int labelEnd(String line) {
+        int k = 0;
+        while (k < line.length() && isNameChar(line.charAt(k))) {
+            k++;
+        }
+        return k > 0 && k < line.length() && line.charAt(k) == ':' ? k : -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' ||
+               c == '$';
+    }
+
+    private void decode(int i, String line, HashMap<String,Integer> textLabels,
+                        HashMap<String,Integer> dataLabels) {
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        Op op = Op.of(line.substring(0, end));
+        String rest = line.substring(end).trim();
+        String[] args = rest.isEmpty() ? new String[0] : rest.split(",");
+        for (int k = 0; k < args.length; k++) {
+            args[k] = args[k].trim();
+        }
+
+        switch (op) {
+        case ADD: case ADDU: arith(i, ADD, args); break;
+        case SUB: case SUBU: arith(i, SUB, args); break;
+        case AND: arith(i, AND, args); break;
+        case OR:  arith(i, OR, args); break;
+        case XOR: arith(i, XOR, args); break;
+        case SLL: arith(i, SLL, args); break;
+        case SRL: arith(i, SRL, args); break;
+        case SRA: arith(i, SRA, args); break;
+        case SEQ: arith(i, SEQ, args); break;
+        case SNE: arith(i, SNE, args); break;
+        case SLT: arith(i, SLT, args); break;
+        case SGT: arith(i, SGT, args); break;
+        case SLE: arith(i, SLE, args); break;
+        case SGE: arith(i, SGE, args); break;
+        case MULT:
+            count(args, 2);
+            set(i, MULT, reg(args[0]), reg(args[1]), 0);
+            break;
+        case DIV:
+            if (args.length == 3) {
+                set(i, DIV3, dest(args[0]), reg(args[1]), reg(args[2]));
+            } else {
+                count(args, 2);
+                set(i, DIV, reg(args[0]), reg(args[1]), 0);
+            }
+            break;
+        case MFLO: count(args, 1); set(i, MFLO, dest(args[0]), 0, 0); break;
+        case MFHI: count(args, 1); set(i, MFHI, dest(args[0]), 0, 0); break;
+        case NEG:
+            count(args, 2);
+            set(i, NEG, dest(args[0]), reg(args[1]), 0);
+            break;
+        case NOT:
+            count(args, 2);
+            set(i, NOT, dest(args[0]), reg(args[1]), 0);
+            break;
+        case MOVE:
+            count(args, 2);
+            set(i, MOVE, dest(args[0]), reg(args[1]), 0);
+            break;
+        case LI:
+            count(args, 2);
+            set(i, LI, dest(args[0]), parseInt(args[1]), 0);
+            break;
+        case LA:
+            count(args, 2);
+            if (args[1].endsWith(")")) {  // la rd, off(rs)
+                int[] addr = indexed(args[1]);
+                set(i, ADD + 1, dest(args[0]), addr[1], addr[0]);
+            } else {
+                set(i, LI, dest(args[0]), label(args[1], dataLabels), 0);
+            }
+            break;
+        case LW:
+        case SW: {
+            count(args, 2);
+            int[] addr = args[1].endsWith(")")
+                ? indexed(args[1]) : new int[] {label(args[1], dataLabels), 0};
+            set(i, op == Op.LW ? LW : SW,
+                op == Op.LW ? dest(args[0]) : reg(args[0]), addr[1], addr[0]);
+            break;
+        }
+        case B: case J:
+            count(args, 1);
+            set(i, JUMP, label(args[0], textLabels), 0, 0);
+            break;
+        case JAL:
+            count(args, 1);
+            set(i, JAL, label(args[0], textLabels), 0, 0);
+            break;
+        case JR:
+            count(args, 1);
+            set(i, JR, reg(args[0]), 0, 0);
+            break;
+        case BEQ: branch(i, BEQ, args, textLabels); break;
+        case BNE: branch(i, BNE, args, textLabels); break;
+        case BLT: branch(i, BLT, args, textLabels); break;
+        case BGT: branch(i, BGT, args, textLabels); break;
+        case BLE: branch(i, BLE, args, textLabels); break;
+        case BGE: branch(i, BGE, args, textLabels); break;
+        case BEQZ: case BNEZ:
+            count(args, 2);
+            set(i, (op == Op.BEQZ ? BEQ : BNE) + 1, reg(args[0]), 0,
+                label(args[1], textLabels));
+            break;
+        case SYSCALL:
+            count(args, 0);
+            set(i, SYSCALL, 0, 0, 0);
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported op " + op.text);
+        }
+    }
+
+    private void set(int i, int op, int a, int b, int c) {
+        ops[i] = op;
+        as[i] = a;
+        bs[i] = b;
+        cs[i] = c;
+    }
+
+    // op rd, rs, rt|imm  or  op rd, rt|imm (meaning op rd, rd, rt|imm)
+    private void arith(int i, int op, String[] args) {
+        if (args.length == 2) {
+            args = new String[] {args[0], args[0], args[1]};
+        }
+        count(args, 3);
+        if (args[2].startsWith("$")) {
+            set(i, op, dest(args[0]), reg(args[1]), reg(args[2]));
+        } else {
+            set(i, op + 1, dest(args[0]), reg(args[1]), parseInt(args[2]));
+        }
+    }
+
+    // op rs, rt|imm, label
+    private void branch(int i, int op, String[] args,
+                        HashMap<String,Integer> labels) {
+        count(args, 3);
+        int target = label(args[2], labels);
+        if (args[1].startsWith("$")) {
+            set(i, op, reg(args[0]), reg(args[1]), target);
+        } else {
+            set(i, op + 1, reg(args[0]), parseInt(args[1]), target);
+        }
+    }
+
+    private static void count(String[] args, int n) {
+        if (args.length != n) {
+            throw new IllegalArgumentException("expected " + n +
+                                               " operands");
+        }
+    }
+
+    private static int reg(String name) {
+        long reg = InstrBuffer.register(name);
+        if (reg == InstrBuffer.NONE) {
+            throw new IllegalArgumentException("bad register " + name);
+        }
+        return InstrBuffer.value(reg);
+    }
+
+    // a register that is written, which cannot be $zero
+    private static int dest(String name) {
+        int reg = reg(name);
+        if (reg == 0) {
+            throw new IllegalArgumentException("cannot write $zero");
+        }
+        return reg;
+    }
+
+    // {offset, register} of "offset(register)"
+    private static int[] indexed(String arg) {
+        int open = arg.indexOf('(');
+        if (open < 0) {
+            throw new IllegalArgumentException("bad address " + arg);
+        }
+        String off = arg.substring(0, open).trim();
+        return new int[] {off.isEmpty() ? 0 : parseInt(off),
+                          reg(arg.substring(open + 1, arg.length() - 1))};
+    }
+
+    private static int label(String name, HashMap<String,Integer> labels) {
+        Integer val = labels.get(name);
+        if (val == null) {
+            throw new IllegalArgumentException("undefined label " + name);
+        }
+        return val;
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return s.startsWith("0x") ? (int)Long.parseLong(s.substring(2), 16)
+                                      : Integer.parseInt(s);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bad operand " + s);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/***
+ * The NameTable class interns the identifiers of one compilation.
+ * Every distinct name gets a dense int id (0, 1, 2, ...) and one canonical
+ * String, so the rest of the compiler can compare and hash names as ints.
+ *
+ * The scanners intern straight out of their character or byte buffers; a
+ * String is only created the first time a name is seen.
+ ***/
+public class NameTable {
+    private String[] names;   // canonical name of each id
+    private int[] hashes;     // hash code of each id's name
+    private int[] slots;      // open-addressing table of id+1 (0 is empty)
+    private int size;
+
+    public NameTable() {
+        names = new String[64];
+        hashes = new int[64];
+        slots = new int[128];
+        size = 0;
+    }
+
+    /***
+     * Return the id of the name made of the len characters of buf starting
+     * at start, adding the name if it has not been seen before.
+     ***/
+    public int intern(char[] buf, int start, int len) {
+        int hash = 0;
+        for (int k = start; k < start + len; k++) {
+            hash = 31 * hash + buf[k];
+        }
+
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (id < 0) {
+                return add(new String(buf, start, len), hash, i);
+            }
+            if (hashes[id] == hash && matches(names[id], buf, start, len)) {
+                return id;
+            }
+        }
+    }
+
+    /***
+     * Return the id of the name made of the len (ASCII) bytes of buf
+     * starting at start, adding the name if it has not been seen before.
+     ***/
+    public int intern(ByteBuffer buf, int start, int len) {
+        int hash = 0;
+        for (int k = start; k < start + len; k++) {
+            hash = 31 * hash + (buf.get(k) & 0xff);
+        }
+
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (id < 0) {
+                char[] chars = new char[len];
+                for (int k = 0; k < len; k++) {
+                    chars[k] = (char)(buf.get(start + k) & 0xff);
+                }
+                return add(new String(chars), hash, i);
+            }
+            if (hashes[id] == hash && matches(names[id], buf, start, len)) {
+                return id;
+            }
+        }
+    }
+
+    /***
+     * Return the id of the given name, adding it if it has not been seen
+     * before.
+     ***/
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (id < 0) {
+                return add(name, hash, i);
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /***
+     * Return the id of the given name, or -1 if it has never been interned.
+     ***/
+    public int lookup(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /***
+     * Return the canonical String for the given id.
+     ***/
+    public String name(int id) {
+        return names[id];
+    }
+
+    /***
+     * Return the number of distinct names interned so far.
+     ***/
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int hash, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+
+        if (2 * size > slots.length) {  // keep the table at most half full
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    private static boolean matches(String name, ByteBuffer buf, int start,
+                                   int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (name.charAt(k) != (buf.get(start + k) & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String name, char[] buf, int start,
+                                   int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (name.charAt(k) != buf[start + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.HashMap;
+
+/***
+ * The Op enum lists the MIPS op codes that can be recorded in an
+ * InstrBuffer, each with its text (as bytes, for MipsEmitter).
+ ***/
+public enum Op {
+    ADD("add"), ADDU("addu"), SUB("sub"), SUBU("subu"),
+    MULT("mult"), DIV("div"), MFLO("mflo"), MFHI("mfhi"), NEG("neg"),
+    AND("and"), OR("or"), XOR("xor"), NOT("not"),
+    SLL("sll"), SRL("srl"), SRA("sra"),
+    SEQ("seq"), SNE("sne"), SLT("slt"), SGT("sgt"), SLE("sle"), SGE("sge"),
+    LI("li"), LA("la"), LW("lw"), SW("sw"), MOVE("move"),
+    B("b"), J("j"), JAL("jal"), JR("jr"),
+    BEQ("beq"), BNE("bne"), BLT("blt"), BGT("bgt"), BLE("ble"), BGE("bge"),
+    BEQZ("beqz"), BNEZ("bnez"),
+    SYSCALL("syscall");
+
+    private static final HashMap<String,Op> byText = new HashMap<String,Op>();
+    static {
+        for (Op op : values()) {
+            byText.put(op.text, op);
+        }
+    }
+
+    final String text;
+    final byte[] bytes;
+
+    Op(String text) {
+        this.text = text;
+        this.bytes = text.getBytes();
+    }
+
+    /***
+     * Return the Op whose text is the given op code; throws
+     * IllegalArgumentException if there is none.
+     ***/
+    public static Op of(String text) {
+        Op op = byText.get(text);
+        if (op == null) {
+            throw new IllegalArgumentException("unknown op code " + text);
+        }
+        return op;
+    }
+
+    /***
+     * Return true for the branches and jumps to a label.
+     ***/
+    public boolean isBranch() {
+        switch (this) {
+            case B: case J: case BEQ: case BNE: case BLT: case BGT: case BLE:
+            case BGE: case BEQZ: case BNEZ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /***
+     * Return true if control never goes on to the next instruction.
+     ***/
+    public boolean isUnconditional() {
+        return this == B || this == J || this == JR;
+    }
+}
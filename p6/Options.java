@@ -0,0 +1,138 @@
+/***
+ * The Options class holds the command-line switches that change how a
+ * program is compiled.  One Options object is shared by every compilation
+ * started from the same command line, so it is not changed once parsing
+ * of the command line is done.
+ ***/
+public class Options {
+    // evaluate expressions in $t0-$t9 (Sethi-Ullman) instead of on the stack
+    boolean regAlloc = false;
+
+    // fold constants and simplify expressions after type checking
+    boolean fold = true;
+
+    // the peephole rules to run on the generated code (see Peephole)
+    int peephole = Peephole.ALL;
+
+    // do name analysis and type checking in one walk of the program
+    boolean fused = false;
+
+    // scan with TableScanner instead of the JLex-generated Yylex
+    boolean tableScan = false;
+
+    // memory-map the source and scan it with TableScanner (see SourceText)
+    boolean mmap = false;
+
+    // scan the whole (memory-mapped) source into a TokenStream before
+    // parsing it
+    boolean tokens = false;
+
+    // generate the code of the functions in parallel (see
+    // DeclListNode.codeGen)
+    boolean parallelCodegen = false;
+
+    // the number of threads for -parallel, or 0 for one per core
+    int threads = 0;
+
+    // the directory of the CodeCache, or null for none
+    String cacheDir = null;
+
+    // report the time, allocation and counts of each phase (see
+    // CompileStats), to stderr or, if statsFile is not null, to that file
+    boolean stats = false;
+    String statsFile = null;
+
+    /***
+     * parse
+     * If arg is one of the compiler switches, record it and return true;
+     * otherwise return false.  Throws IllegalArgumentException if arg is
+     * a switch with a bad value.
+     ***/
+    public boolean parse(String arg) {
+        if (arg.equals("-regalloc")) {
+            regAlloc = true;
+            return true;
+        }
+        if (arg.equals("-nofold")) {
+            fold = false;
+            return true;
+        }
+        if (arg.equals("-fused")) {
+            fused = true;
+            return true;
+        }
+        if (arg.equals("-mmap")) {
+            mmap = true;
+            return true;
+        }
+        if (arg.equals("-tokens")) {
+            tokens = true;
+            return true;
+        }
+        if (arg.equals("-tablescan")) {
+            tableScan = true;
+            return true;
+        }
+        if (arg.equals("-pcodegen")) {
+            parallelCodegen = true;
+            return true;
+        }
+        if (arg.startsWith("-j=")) {
+            String n = arg.substring("-j=".length());
+            try {
+                threads = Integer.parseInt(n);
+            } catch (NumberFormatException ex) {
+                threads = 0;
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("bad thread count " + n);
+            }
+            return true;
+        }
+        if (arg.startsWith("-cache=")) {
+            cacheDir = arg.substring("-cache=".length());
+            if (cacheDir.isEmpty()) {
+                throw new IllegalArgumentException("no cache directory");
+            }
+            return true;
+        }
+        if (arg.equals("-stats")) {
+            stats = true;
+            return true;
+        }
+        if (arg.startsWith("-stats=")) {
+            stats = true;
+            statsFile = arg.substring("-stats=".length());
+            if (statsFile.isEmpty()) {
+                throw new IllegalArgumentException("no stats file");
+            }
+            return true;
+        }
+        if (arg.startsWith("-peephole=")) {
+            peephole = Peephole.parseRules(arg.substring("-peephole=".length()));
+            return true;
+        }
+        return false;
+    }
+
+    /***
+     * Return a short description of the switches, for usage messages.
+     ***/
+    public static String usage() {
+        return "  -regalloc         keep expression temporaries in registers\n" +
+               "  -nofold           do not fold constant expressions\n" +
+               "  -peephole=RULES   run only the given peephole rules: all,\n" +
+               "                    none, or a list of push-pop, jump-next,\n" +
+               "                    load-store and unreachable\n" +
+               "  -fused            check names and types in one pass\n" +
+               "  -tablescan        use the table-driven byte scanner\n" +
+               "  -mmap             memory-map the source for that scanner\n" +
+               "  -tokens           scan the mapped source before parsing it\n" +
+               "  -pcodegen         generate functions in parallel\n" +
+               "  -j=N              use N threads for -parallel\n" +
+               "  -cache=DIR        reuse the code of unchanged functions,\n" +
+               "                    kept in DIR\n" +
+               "  -stats            report the time and counts of each phase\n" +
+               "  -stats=FILE       append that report to FILE, as JSON";
+    }
+}
@@ -1,4 +1,7 @@
 import java.io.*;
+import java.net.*;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java_cup.runtime.*;
 
 /****
@@ -13,62 +16,367 @@ import java_cup.runtime.*;
  * calls the parser.  If the parse is successful, then it will call name
  * analysis and type checking routines. If there is no error at the end,
  * it will generate MIPS code to the output file.
+ *
+ * The compiler can also be kept running to compile many files in one JVM:
+ *   -batch          read "source target" pairs from stdin, one per line
+ *   -server port    accept connections on the loopback interface and read
+ *                   "source target" pairs from each one
+ * For every pair a line "ok source" or "error source" is written back once
+ * the compile has finished; diagnostics still go to stderr.
+ *
+ * Many files can also be compiled at the same time:
+ *   -parallel [-j threads] source target [source target ...]
+ * compiles every pair on a fork-join pool (one thread per core unless -j,
+ * or the switch -j=N, is given) and prints the diagnostics of each file in
+ * the order given.
+ *
+ * Any of the above may be preceded by compiler switches (see Options):
+ *   -regalloc       evaluate expressions in registers instead of on the
+ *                   stack wherever that is possible
+ *   -nofold         do not fold constants and simplify expressions (this
+ *                   is done by default, after type checking)
+ *   -peephole=RULES the peephole rules to run on the generated code
+ *                   (default all; see Peephole)
+ *   -fused          do name analysis and type checking in one walk of the
+ *                   tree, with the same diagnostics
+ *   -tablescan      scan with TableScanner, which reads the source as bytes,
+ *                   instead of Yylex
+ *   -mmap           memory-map the source and scan it with TableScanner;
+ *                   line and character numbers are only worked out for
+ *                   diagnostics
+ *   -tokens         as -mmap, but scan the whole source into a compact
+ *                   TokenStream before parsing it
+ *   -pcodegen       generate the code of the functions in parallel, on
+ *                   the fork-join pool; the output is the same
+ *   -j=N            the number of threads for -parallel
+ *   -cache=DIR      keep the code of each function in DIR and reuse it,
+ *                   without type checking or generating the function
+ *                   again, while neither it nor the declarations it uses
+ *                   change (see CodeCache)
+ *   -stats          report the wall time, CPU time and allocation of each
+ *                   phase, and how many tokens, AST nodes, symbols,
+ *                   scopes, labels and instructions there were, to stderr
+ *                   (see CompileStats)
+ *   -stats=FILE     as -stats, but append the report to FILE as a line
+ *                   of JSON
  ****/
 
 public class P6 {
     public static void main(String[] args)
         throws IOException // may be thrown by the scanner
     {
+        Options options = new Options();
+        int first = 0;
+        try {
+            while (first < args.length && options.parse(args[first])) {
+                first++;
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(Options.usage());
+            System.exit(-1);
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+
+        if (args.length == 1 && args[0].equals("-batch")) {
+            serve(new BufferedReader(new InputStreamReader(System.in)),
+                  new PrintWriter(System.out, true), options);
+            return;
+        }
+
+        if (args.length == 2 && args[0].equals("-server")) {
+            int port = 0;
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.println("bad port number " + args[1]);
+                System.exit(-1);
+            }
+            listen(port, options);
+            return;
+        }
+
+        if (args.length >= 1 && args[0].equals("-parallel")) {
+            parallel(args, options);
+            return;
+        }
+
         // check for command-line args
         if (args.length != 2) {
             System.err.println("please supply name of source (minim) file " +
 			                   "and name of file for target (MIPS).");
+            System.err.println(Options.usage());
             System.exit(-1);
         }
 
+        if (!compile(args[0], args[1],
+                     new CompilationContext(System.err, options))) {
+            System.exit(-1);
+        }
+    }
+
+    /***
+     * compile
+     * Compiles the minim program in file src into MIPS code in file target,
+     * in a fresh compilation that reports its diagnostics to stderr.
+     ***/
+    public static boolean compile(String src, String target)
+        throws IOException
+    {
+        return compile(src, target, new CompilationContext());
+    }
+
+    /***
+     * compile
+     * Compiles the minim program in file src into MIPS code in file target.
+     * All of the state of the compile lives in ctx, so this may be called
+     * any number of times in the same JVM, and from several threads at once
+     * as long as each call has its own ctx.
+     * Returns false if a file could not be opened or the parse failed;
+     * name and type errors are reported through ctx and can be checked
+     * with ctx.hasErrors().
+     ***/
+    public static boolean compile(String src, String target,
+                                  CompilationContext ctx)
+        throws IOException
+    {
+        CompilationContext prev = ctx.enter();
+        try {
+            boolean ok = compileFile(src, target, ctx);
+            if (ctx.stats != null) {
+                ctx.stats.report(src, ctx.errStream, ctx.options.statsFile);
+            }
+            return ok;
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
+
+    private static boolean compileFile(String src, String target,
+                                       CompilationContext ctx)
+        throws IOException
+    {
+        if (ctx.options.cacheDir != null) {
+            ctx.cache = new CodeCache(ctx.options.cacheDir);
+        }
+        if (ctx.options.stats) {
+            ctx.stats = new CompileStats();
+        }
+        CompileStats stats = ctx.stats;
+
         // open input file
+        if (stats != null) {
+            stats.begin("scan");
+        }
         FileReader inFile = null;
+        Scanner scanner = null;
         try {
-            inFile = new FileReader(args[0]);
+            if (ctx.options.tokens) {
+                scanner = TokenStream.scan(SourceText.map(src), ctx);
+            } else if (ctx.options.mmap) {
+                scanner = new TableScanner(SourceText.map(src), ctx);
+            } else if (ctx.options.tableScan) {
+                scanner = new TableScanner(TableScanner.read(src), ctx);
+            } else {
+                inFile = new FileReader(src);
+                scanner = new Yylex(inFile, ctx);
+            }
         } catch (FileNotFoundException ex) {
-            System.err.println("file " + args[0] + " not found");
-            System.exit(-1);
+            ctx.errStream.println("file " + src + " not found");
+            return false;
         }
 
         // open output file
-        PrintWriter outFile = null;
+        FileChannel outFile = null;
         try {
-            Codegen.p = new PrintWriter(args[1]);
+            outFile = new FileOutputStream(target).getChannel();
         } catch (FileNotFoundException ex) {
-            System.err.println("file " + args[1] +
-                               " could not be opened for writing");
-            System.exit(-1);
+            ctx.errStream.println("file " + target +
+                                  " could not be opened for writing");
+            if (inFile != null) {
+                inFile.close();
+            }
+            return false;
         }
 
-        parser P = new parser(new Yylex(inFile));
+        try {
+            if (stats != null) {
+                if (scanner instanceof TokenStream) {  // already scanned
+                    stats.tokens = ((TokenStream)scanner).size();
+                } else {
+                    scanner = stats.scanner(scanner);
+                }
+                stats.begin("parse");
+            }
+            parser P = new parser(scanner);
+
+            Symbol root = null; // the parser will return a Symbol whose value
+                                // field is the translation of the root
+                                // nonterminal (i.e., of the nonterminal
+                                // "program")
 
-        Symbol root = null; // the parser will return a Symbol whose value
-                            // field is the translation of the root nonterminal
-                            // (i.e., of the nonterminal "program")
+            try {
+                root = P.parse(); // do the parse
+            } catch (SyntaxErrorException ex) {
+                return false;     // already reported by the parser
+            } catch (Exception ex){
+                ctx.errStream.println("exception occured during parse: " + ex);
+                return false;
+            } finally {
+                if (stats != null) {
+                    stats.endParse();
+                }
+            }
 
-        try {
-            root = P.parse(); // do the parse
-        } catch (Exception ex){
-            System.err.println("exception occured during parse: " + ex);
+            ProgramNode program = (ProgramNode)root.value;
+            if (stats != null) {
+                stats.countNodes(program);
+            }
+
+            if (ctx.options.fused) {
+                if (stats != null) {
+                    stats.begin("analyze");
+                }
+                program.analyze(ctx);  // both at once
+            } else {
+                if (stats != null) {
+                    stats.begin("nameAnalysis");
+                }
+                program.nameAnalysis(ctx);  // perform name analysis
+
+                if (!ctx.hasErrors()) {  // if no errors, do type checking
+                    if (stats != null) {
+                        stats.begin("typeCheck");
+                    }
+                    program.typeCheck(ctx);
+                }
+            }
+
+            if (!ctx.hasErrors() && ctx.options.fold) {
+                if (stats != null) {
+                    stats.begin("fold");
+                }
+                program.fold(ctx);
+            }
+
+            if (!ctx.hasErrors()) {  // if no errors, do code generation
+                if (stats != null) {
+                    stats.begin("codeGen");
+                }
+                program.codeGen(ctx, outFile);
+                if (stats != null) {
+                    stats.end();
+                    stats.countCode(ctx.ir);
+                }
+            }
+        } finally {
+            if (inFile != null) {
+                inFile.close();
+            }
+            outFile.close();
+        }
+
+        return true;
+    }
+
+    /***
+     * serve
+     * Reads "source target" pairs from in until end of input, compiles each
+     * one and writes its status to out.
+     ***/
+    static void serve(BufferedReader in, PrintWriter out, Options options)
+        throws IOException
+    {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+
+            String[] files = line.split("\\s+");
+            if (files.length != 2) {
+                out.println("error " + line);
+                continue;
+            }
+
+            boolean ok = false;
+            try {
+                CompilationContext ctx = new CompilationContext(System.err,
+                                                                options);
+                ok = compile(files[0], files[1], ctx) && !ctx.hasErrors();
+            } catch (RuntimeException ex) {  // don't let one bad file
+                ex.printStackTrace();        // take the whole server down
+            }
+            out.println((ok ? "ok " : "error ") + files[0]);
+        }
+    }
+
+    /***
+     * listen
+     * Accepts connections on the loopback interface, one at a time, and
+     * serves each of them until the client closes it.
+     ***/
+    static void listen(int port, Options options) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50,
+                                               InetAddress.getLoopbackAddress());
+        System.err.println("P6 listening on port " + server.getLocalPort());
+        while (true) {
+            Socket client = server.accept();
+            try {
+                serve(new BufferedReader(
+                          new InputStreamReader(client.getInputStream())),
+                      new PrintWriter(client.getOutputStream(), true),
+                      options);
+            } catch (IOException ex) {
+                System.err.println("connection dropped: " + ex);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /***
+     * parallel
+     * Handles "-parallel [-j threads] source target ...": compiles every
+     * pair on a fork-join pool and exits with -1 if any of them failed.
+     ***/
+    static void parallel(String[] args, Options options) {
+        int first = 1;
+        if (args.length >= 3 && args[1].equals("-j")) {
+            try {
+                options.parse("-j=" + args[2]);
+            } catch (IllegalArgumentException ex) {
+                System.err.println(ex.getMessage());
+                System.err.println(Options.usage());
+                System.exit(-1);
+            }
+            first = 3;
+        }
+        int threads = options.threads > 0
+            ? options.threads : Runtime.getRuntime().availableProcessors();
+
+        if (first == args.length || (args.length - first) % 2 != 0) {
+            System.err.println("please supply pairs of source (minim) file " +
+                               "and file for target (MIPS).");
             System.exit(-1);
         }
-		
-		((ProgramNode)root.value).nameAnalysis();  // perform name analysis
-		
-		if (!ErrMsg.getErr()) {  // if no errors, do type checking
-			((ProgramNode)root.value).typeCheck();
-		}
-		
-		if (!ErrMsg.getErr()) {  // if no errors, do code generation	
-			((ProgramNode)root.value).codeGen();
-		}
-        Codegen.p.close();
-
-        return;
+
+        int n = (args.length - first) / 2;
+        String[] srcs = new String[n];
+        String[] targets = new String[n];
+        for (int k = 0; k < n; k++) {
+            srcs[k] = args[first + 2*k];
+            targets[k] = args[first + 2*k + 1];
+        }
+
+        ParallelCompiler compiler = new ParallelCompiler(threads, options);
+        boolean[] ok = compiler.compileAll(srcs, targets, System.err);
+        compiler.shutdown();
+        for (boolean b : ok) {
+            if (!b) {
+                System.exit(-1);
+            }
+        }
     }
 }
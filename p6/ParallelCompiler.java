@@ -0,0 +1,97 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/***
+ * ParallelCompiler
+ * Compiles many minim programs at the same time on a fork-join pool.
+ *
+ * Every program gets its own CompilationContext, so the compiles share no
+ * mutable state.  The diagnostics of each program are collected in a
+ * buffer of their own and written out in the order the programs were
+ * given, once all of them are done.
+ ***/
+class ParallelCompiler {
+    private ForkJoinPool pool;
+    private Options options;
+
+    public ParallelCompiler(int threads, Options options) {
+        pool = new ForkJoinPool(threads);
+        this.options = options;
+    }
+
+    /***
+     * compileAll
+     * Compiles srcs[k] into targets[k] for every k and writes all of the
+     * diagnostics to diag.  Returns, for every k, whether that program
+     * compiled without errors.
+     ***/
+    public boolean[] compileAll(String[] srcs, String[] targets,
+                                PrintStream diag) {
+        boolean[] ok = new boolean[srcs.length];
+        ByteArrayOutputStream[] errs = new ByteArrayOutputStream[srcs.length];
+
+        pool.invoke(new CompileTask(srcs, targets, options, ok, errs, 0,
+                                    srcs.length));
+
+        for (ByteArrayOutputStream err : errs) {
+            diag.print(err.toString());
+        }
+        diag.flush();
+        return ok;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /***
+     * CompileTask
+     * Compiles the programs in [lo, hi), splitting the range in half until
+     * there is a single program left.
+     ***/
+    private static class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private String[] srcs;
+        private String[] targets;
+        private Options options;
+        private boolean[] ok;
+        private ByteArrayOutputStream[] errs;
+        private int lo;
+        private int hi;
+
+        CompileTask(String[] srcs, String[] targets, Options options,
+                    boolean[] ok, ByteArrayOutputStream[] errs, int lo,
+                    int hi) {
+            this.srcs = srcs;
+            this.targets = targets;
+            this.options = options;
+            this.ok = ok;
+            this.errs = errs;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CompileTask(srcs, targets, options, ok, errs,
+                                          lo, mid),
+                          new CompileTask(srcs, targets, options, ok, errs,
+                                          mid, hi));
+                return;
+            }
+
+            errs[lo] = new ByteArrayOutputStream();
+            PrintStream err = new PrintStream(errs[lo], true);
+            CompilationContext ctx = new CompilationContext(err, options);
+            try {
+                ok[lo] = P6.compile(srcs[lo], targets[lo], ctx) &&
+                         !ctx.hasErrors();
+            } catch (IOException | RuntimeException ex) {
+                err.println("exception while compiling " + srcs[lo] + ": " +
+                            ex);
+            }
+        }
+    }
+}
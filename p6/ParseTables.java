@@ -0,0 +1,218 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/***
+ * ParseTables
+ * CUP writes the production, action and reduce tables of parser into
+ * parser.java as long string literals, which the parser class decodes
+ * into short arrays when it is loaded.  At build time,
+ *
+ *   java ParseTables parser.java parser.tables
+ *
+ * decodes them once, writes the arrays to parser.tables, and rewrites
+ * parser.java so that its tables come from table(k) instead.  At run time
+ * the first call of table reads the whole file in one go, and every
+ * parser made after that shares the arrays.
+ *
+ * The file holds big-endian ints and shorts: the number of tables; then,
+ * for each table, its number of rows followed by the length of each row;
+ * then the rows of all the tables, one after the other.
+ ***/
+public class ParseTables {
+    static final String RESOURCE = "parser.tables";
+
+    // the tables, read when the parser class is loaded
+    private static class Holder {
+        static final short[][][] TABLES = load();
+    }
+
+    /***
+     * Return table k (in the order they appear in parser.java).
+     ***/
+    public static short[][] table(int k) {
+        return Holder.TABLES[k];
+    }
+
+    private static short[][][] load() {
+        try (InputStream in = open()) {
+            return decode(in.readAllBytes());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Open the file next to this class when the classes are in a
+    // directory, since asking the class loader for a resource first looks
+    // through the system modules, which takes longer than parsing a small
+    // program.
+    private static InputStream open() throws IOException {
+        URL dir = ParseTables.class.getProtectionDomain().getCodeSource()
+                                   .getLocation();
+        if (dir.getProtocol().equals("file") && dir.getPath().endsWith("/")) {
+            File file = new File(dir.getPath(), RESOURCE);
+            if (file.isFile()) {
+                return new FileInputStream(file);
+            }
+        }
+        InputStream in = ParseTables.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new FileNotFoundException(RESOURCE);
+        }
+        return in;
+    }
+
+    // This runs before the JIT has compiled anything, so it reads the
+    // bytes itself rather than through a ByteBuffer.
+    private static short[][][] decode(byte[] bytes) {
+        int p = 0;
+        short[][][] tables = new short[getInt(bytes, p)][][];
+        p += 4;
+        for (int k = 0; k < tables.length; k++) {
+            tables[k] = new short[getInt(bytes, p)][];
+            p += 4;
+            for (int i = 0; i < tables[k].length; i++) {
+                tables[k][i] = new short[getInt(bytes, p)];
+                p += 4;
+            }
+        }
+        for (short[][] table : tables) {
+            for (short[] row : table) {
+                for (int j = 0; j < row.length; j++, p += 2) {
+                    row[j] = (short)((bytes[p] << 8) | (bytes[p + 1] & 0xff));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static int getInt(byte[] bytes, int p) {
+        return (bytes[p] << 24) | ((bytes[p + 1] & 0xff) << 16) |
+               ((bytes[p + 2] & 0xff) << 8) | (bytes[p + 3] & 0xff);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Writer.write(args);
+    }
+
+    // The build-time half, kept apart so that loading ParseTables to read
+    // the tables stays cheap.
+    private static class Writer {
+        static void write(String[] args) throws IOException {
+            if (args.length != 2) {
+                System.err.println("usage: java ParseTables parser.java " +
+                                   "parser.tables");
+                System.exit(-1);
+            }
+            Path source = Paths.get(args[0]);
+            String text = new String(Files.readAllBytes(source),
+                                     StandardCharsets.UTF_8);
+
+            ArrayList<short[][]> tables = new ArrayList<short[][]>();
+            StringBuffer rewritten = new StringBuffer();
+            // a table initializer as CUP writes it
+            Matcher m = Pattern.compile(
+                "unpackFromStrings\\(new String\\[\\] \\{(.*?)\\}\\);",
+                Pattern.DOTALL).matcher(text);
+            while (m.find()) {
+                tables.add(unpack(m.group(1)));
+                m.appendReplacement(rewritten, "ParseTables.table(" +
+                                    (tables.size() - 1) + ");");
+            }
+            m.appendTail(rewritten);
+            if (tables.isEmpty()) {
+                // already rewritten: leave both files alone
+                return;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(args[1])))) {
+                out.writeInt(tables.size());
+                for (short[][] table : tables) {
+                    out.writeInt(table.length);
+                    for (short[] row : table) {
+                        out.writeInt(row.length);
+                    }
+                }
+                for (short[][] table : tables) {
+                    for (short[] row : table) {
+                        for (short s : row) {
+                            out.writeShort(s);
+                        }
+                    }
+                }
+            }
+            Files.write(source,
+                        rewritten.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        /***
+         * Decode the string literals of one table initializer the way
+         * lr_parser.unpackFromStrings does: a two-char row count, and then
+         * for each row a two-char length and one char (plus 2) per entry.
+         ***/
+        private static short[][] unpack(String literals) {
+            StringBuilder sb = new StringBuilder();
+            Matcher m = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"")
+                               .matcher(literals);
+            while (m.find()) {
+                unescape(m.group(1), sb);
+            }
+            int idx = 0;
+            int rows = (sb.charAt(idx) << 16) | sb.charAt(idx + 1);
+            idx += 2;
+            short[][] table = new short[rows][];
+            for (int i = 0; i < rows; i++) {
+                int len = (sb.charAt(idx) << 16) | sb.charAt(idx + 1);
+                idx += 2;
+                table[i] = new short[len];
+                for (int j = 0; j < len; j++) {
+                    table[i][j] = (short)(sb.charAt(idx++) - 2);
+                }
+            }
+            return table;
+        }
+
+        // append the value of the body of a Java string literal to sb
+        private static void unescape(String s, StringBuilder sb) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                c = s.charAt(++i);
+                if (c >= '0' && c <= '7') {
+                    int end = i + 1;
+                    int max = c <= '3' ? i + 3 : i + 2;
+                    while (end < max && end < s.length() &&
+                           s.charAt(end) >= '0' && s.charAt(end) <= '7') {
+                        end++;
+                    }
+                    sb.append((char)Integer.parseInt(s.substring(i, end), 8));
+                    i = end - 1;
+                } else if (c == 'u') {
+                    while (s.charAt(i) == 'u') {
+                        i++;
+                    }
+                    int code = Integer.parseInt(s.substring(i, i + 4), 16);
+                    sb.append((char)code);
+                    i += 3;
+                } else {
+                    switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(c);  // \" \' \\
+                    }
+                }
+            }
+        }
+    }
+}
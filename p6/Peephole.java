@@ -0,0 +1,185 @@
+import java.util.*;
+
+/***
+ * The Peephole class rewrites short windows of the intermediate code of a
+ * program (see Ir) before it is emitted.  Each rule can be turned on and
+ * off on its own:
+ *
+ *   push-pop    a push immediately popped again becomes a move (or
+ *               nothing, if it is popped into the same register)
+ *   jump-next   a b or j to the label right after it is removed
+ *   load-store  a load right after a store to the same address becomes a
+ *               move (or nothing)
+ *   unreachable the instructions of each basic block that control cannot
+ *               reach from the start of the function (see FlowGraph) are
+ *               removed, such as code after a return; its labels, data
+ *               and comments stay
+ *
+ * Unreachable code is removed first.  Then instructions are copied one
+ * at a time to the output, and after each one
+ * the rules are tried on the end of the output, so that a rewrite can
+ * expose a new window for the instructions before it.  A window never
+ * spans a label, except for jump-next.
+ ***/
+public class Peephole {
+    // the rules, as bits
+    public static final int PUSH_POP = 1;
+    public static final int JUMP_NEXT = 2;
+    public static final int LOAD_STORE = 4;
+    public static final int UNREACHABLE = 8;
+    public static final int ALL = PUSH_POP | JUMP_NEXT | LOAD_STORE | UNREACHABLE;
+
+    private static final String[] NAMES =
+        { "push-pop", "jump-next", "load-store", "unreachable" };
+
+    // operands the rules look for
+    private static final long SP = InstrBuffer.register(Codegen.SP);
+    private static final long FOUR = InstrBuffer.imm(4);
+
+    private int myRules;
+    private InstrBuffer out;
+
+    public Peephole(int rules) {
+        myRules = rules;
+    }
+
+    /***
+     * parseRules
+     * Turn a comma-separated list of rule names, "all" or "none" into a
+     * set of rule bits; throws IllegalArgumentException for a bad name.
+     ***/
+    public static int parseRules(String list) {
+        int rules = 0;
+        for (String name : list.split(",")) {
+            if (name.equals("all")) {
+                rules |= ALL;
+            } else if (!name.equals("none")) {
+                int k = Arrays.asList(NAMES).indexOf(name);
+                if (k < 0) {
+                    throw new IllegalArgumentException("unknown peephole rule " +
+                                                       name);
+                }
+                rules |= 1 << k;
+            }
+        }
+        return rules;
+    }
+
+    /***
+     * Rewrite the code of every function of ir.
+     ***/
+    public void run(Ir ir) {
+        for (IrFunction unit : ir.units()) {
+            optimize(unit.code());
+        }
+    }
+
+    /***
+     * Rewrite code in place.
+     ***/
+    public void optimize(InstrBuffer code) {
+        if ((myRules & UNREACHABLE) != 0) {
+            dropUnreachable(code);
+        }
+        out = new InstrBuffer(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            if (code.kind(i) == InstrBuffer.LABEL && (myRules & JUMP_NEXT) != 0) {
+                jumpToNext(code.arg(i, 0));
+            }
+            out.copy(code, i);
+            boolean changed = true;
+            while (changed) {
+                changed = ((myRules & PUSH_POP) != 0 && pushPop()) ||
+                          ((myRules & LOAD_STORE) != 0 && loadAfterStore());
+            }
+        }
+        code.replaceWith(out);
+        out = null;
+    }
+
+    // the instructions of the blocks of code that cannot be reached
+    private static void dropUnreachable(InstrBuffer code) {
+        FlowGraph graph = new FlowGraph(code);
+        BitSet live = graph.reachable();
+        if (live.cardinality() == graph.blocks().size()) {
+            return;
+        }
+        InstrBuffer kept = new InstrBuffer(code.size());
+        for (BasicBlock block : graph.blocks()) {
+            for (int i = block.start(); i < block.end(); i++) {
+                if (live.get(block.index()) ||
+                    (code.kind(i) != InstrBuffer.OP &&
+                     code.kind(i) != InstrBuffer.INDEXED)) {
+                    kept.copy(code, i);
+                }
+            }
+        }
+        code.replaceWith(kept);
+    }
+
+    // sw R, 0($sp); subu $sp, $sp, 4; lw R2, 4($sp); addu $sp, $sp, 4
+    //   => move R2, R
+    private boolean pushPop() {
+        int n = out.size();
+        if (n < 4 ||
+            !isIndexed(n-4, Op.SW, SP, 0) ||
+            !isOp(n-3, Op.SUBU, SP, SP, FOUR) ||
+            !isIndexed(n-2, Op.LW, SP, 4) ||
+            !isOp(n-1, Op.ADDU, SP, SP, FOUR)) {
+            return false;
+        }
+        long src = out.arg(n-4, 0);
+        long dst = out.arg(n-2, 0);
+        out.truncate(n-4);
+        move(dst, src);
+        return true;
+    }
+
+    // sw R, off(B); lw R2, off(B)  =>  sw R, off(B); move R2, R
+    private boolean loadAfterStore() {
+        int n = out.size();
+        if (n < 2 || out.kind(n-1) != InstrBuffer.INDEXED ||
+            out.op(n-1) != Op.LW ||
+            !isIndexed(n-2, Op.SW, out.arg(n-1, 1),
+                       InstrBuffer.value(out.arg(n-1, 2)))) {
+            return false;
+        }
+        long src = out.arg(n-2, 0);
+        long dst = out.arg(n-1, 0);
+        out.truncate(n-1);
+        move(dst, src);
+        return true;
+    }
+
+    // b L; [labels]; L:  =>  [labels]; L:
+    private void jumpToNext(long label) {
+        int k = out.size() - 1;
+        while (k >= 0 && out.kind(k) == InstrBuffer.LABEL) {
+            k--;
+        }
+        if (k >= 0 && out.kind(k) == InstrBuffer.OP &&
+            (out.op(k) == Op.B || out.op(k) == Op.J) &&
+            out.arg(k, 0) == label) {
+            out.remove(k);
+        }
+    }
+
+    // move dst, src, unless they are the same register
+    private void move(long dst, long src) {
+        if (dst != src) {
+            out.add(InstrBuffer.OP, Op.MOVE, dst, src, InstrBuffer.NONE, -1);
+        }
+    }
+
+    private boolean isIndexed(int i, Op op, long base, int offset) {
+        return out.kind(i) == InstrBuffer.INDEXED && out.op(i) == op &&
+               out.arg(i, 1) == base &&
+               out.arg(i, 2) == InstrBuffer.imm(offset);
+    }
+
+    private boolean isOp(int i, Op op, long a1, long a2, long a3) {
+        return out.kind(i) == InstrBuffer.OP && out.op(i) == op &&
+               out.arg(i, 0) == a1 && out.arg(i, 1) == a2 &&
+               out.arg(i, 2) == a3;
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/***
+ * PerfSuite
+ * Checks that the code P6 generates does not get slower:
+ *
+ *   java PerfSuite [-update] [dir]
+ *
+ * compiles every minim kernel in dir (perf by default) once for each of
+ * CONFIGS, runs the code on MipsSim with no input, and compares the
+ * instructions it executed, the words it loaded and stored, the calls it
+ * made and the stack it used with the counts recorded in
+ * dir/baseline.txt.  A run that does more of any of them than its
+ * baseline is "slower"; one whose output differs is "changed" (its
+ * counts measure different work); a kernel without a baseline is "new".
+ * Any of these makes the suite fail.  -update runs the kernels and writes
+ * their counts as the new baselines instead.
+ *
+ * Each run is stopped after LIMIT instructions.  A kernel that does not
+ * compile, faults or reaches the limit has "failed": its counts say
+ * nothing about the code, so it fails the suite and -update, and is never
+ * recorded as a baseline.
+ ***/
+public class PerfSuite {
+    private static final long LIMIT = 5000000;
+
+    // the name of each configuration, then its compiler switches
+    private static final String[][] CONFIGS = {
+        {"default"},
+        {"regalloc", "-regalloc"}
+    };
+
+    private static final String[] COUNTS = {
+        "instructions", "loads", "stores", "calls", "stack"
+    };
+
+    private static final String BASELINE = "baseline.txt";
+
+    // what one kernel did in one configuration
+    private static class Run {
+        String kernel;
+        String config;
+        long[] counts = new long[COUNTS.length];
+        String result;  // the checksum of its output, or how it failed
+
+        String key() {
+            return kernel + " " + config;
+        }
+
+        boolean ok() {
+            return result.startsWith("ok:");
+        }
+
+        String line() {
+            StringBuilder sb = new StringBuilder(
+                String.format("%-16s %-9s", kernel, config));
+            for (long n : counts) {
+                sb.append(String.format(" %12d", n));
+            }
+            return sb.append(' ').append(result).toString();
+        }
+
+        static Run parse(String line) {
+            String[] f = line.trim().split("\\s+");
+            if (f.length != COUNTS.length + 3) {
+                throw new IllegalArgumentException("bad baseline: " + line);
+            }
+            Run r = new Run();
+            r.kernel = f[0];
+            r.config = f[1];
+            for (int k = 0; k < COUNTS.length; k++) {
+                r.counts[k] = Long.parseLong(f[k + 2]);
+            }
+            r.result = f[f.length - 1];
+            return r;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean update = false;
+        int k = 0;
+        if (k < args.length && args[k].equals("-update")) {
+            update = true;
+            k++;
+        }
+        if (args.length - k > 1 ||
+            (k < args.length && args[k].startsWith("-"))) {
+            System.err.println("usage: java PerfSuite [-update] [dir]");
+            System.exit(-1);
+        }
+        File dir = new File(k < args.length ? args[k] : "perf");
+        File[] kernels = dir.listFiles((d, name) -> name.endsWith(".minim"));
+        if (kernels == null || kernels.length == 0) {
+            System.err.println("no kernels in " + dir);
+            System.exit(-1);
+        }
+        Arrays.sort(kernels);
+
+        File baseFile = new File(dir, BASELINE);
+        Map<String,Run> baseline = new HashMap<String,Run>();
+        if (baseFile.exists()) {
+            for (String line : Files.readAllLines(baseFile.toPath())) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    Run r = Run.parse(line);
+                    baseline.put(r.key(), r);
+                }
+            }
+        }
+
+        System.out.printf("%-16s %-9s", "kernel", "config");
+        for (String c : COUNTS) {
+            System.out.printf(" %12s", c);
+        }
+        System.out.println();
+        ArrayList<Run> runs = new ArrayList<Run>();
+        int failures = 0;
+        for (File kernel : kernels) {
+            for (String[] config : CONFIGS) {
+                Run r = measure(kernel, config);
+                runs.add(r);
+                String verdict = compare(r, baseline.get(r.key()));
+                if (update ? !r.ok()
+                           : !verdict.startsWith("same") &&
+                             !verdict.startsWith("faster")) {
+                    failures++;
+                }
+                System.out.printf("%-16s %-9s", r.kernel, r.config);
+                for (long n : r.counts) {
+                    System.out.printf(" %12d", n);
+                }
+                System.out.println("  " + verdict);
+            }
+        }
+
+        if (update && failures == 0) {
+            try (PrintWriter w = new PrintWriter(new FileWriter(baseFile))) {
+                w.printf("# %-14s %-9s", "kernel", "config");
+                for (String c : COUNTS) {
+                    w.printf(" %12s", c);
+                }
+                w.println(" result");
+                for (Run r : runs) {
+                    w.println(r.line());
+                }
+            }
+            System.out.println("wrote " + baseFile);
+        } else if (update) {
+            System.out.println(failures + " of " + runs.size() +
+                               " runs failed; " + baseFile + " not written");
+            System.exit(-1);
+        } else if (failures > 0) {
+            System.out.println(failures + " of " + runs.size() +
+                               " runs failed, slower or changed; if that " +
+                               "is intended, run with -update");
+            System.exit(-1);
+        }
+    }
+
+    /***
+     * Compile kernel with the switches of config and run it on MipsSim.
+     ***/
+    private static Run measure(File kernel, String[] config)
+        throws IOException
+    {
+        Run r = new Run();
+        r.kernel = kernel.getName();
+        r.config = config[0];
+        Options options = new Options();
+        for (int k = 1; k < config.length; k++) {
+            options.parse(config[k]);
+        }
+
+        Path asm = Files.createTempFile("perf", ".s");
+        try {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            CompilationContext ctx =
+                new CompilationContext(new PrintStream(err, true), options);
+            if (!P6.compile(kernel.getPath(), asm.toString(), ctx) ||
+                ctx.hasErrors()) {
+                System.err.print(err);
+                r.result = "error";
+                return r;
+            }
+
+            MipsSim sim;
+            try {
+                sim = MipsSim.assemble(new String(Files.readAllBytes(asm)));
+            } catch (IllegalArgumentException ex) {
+                System.err.println(kernel + ": " + ex.getMessage());
+                r.result = "error";
+                return r;
+            }
+            sim.setLimit(LIMIT);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                sim.run(new ByteArrayInputStream(new byte[0]),
+                        new PrintStream(output));
+                CRC32 crc = new CRC32();
+                crc.update(output.toByteArray());
+                r.result = "ok:" + String.format("%08x", crc.getValue());
+            } catch (IllegalStateException ex) {
+                System.err.println(kernel + " (" + r.config + "): " +
+                                   ex.getMessage());
+                r.result = sim.stopped() ? "limit" : "fault";
+            }
+            r.counts[0] = sim.instructions();
+            r.counts[1] = sim.loads();
+            r.counts[2] = sim.stores();
+            r.counts[3] = sim.calls();
+            r.counts[4] = sim.maxStackDepth();
+            return r;
+        } finally {
+            Files.deleteIfExists(asm);
+        }
+    }
+
+    // how r compares with its baseline base
+    private static String compare(Run r, Run base) {
+        if (!r.ok()) {
+            return "failed (" + r.result + ")";
+        }
+        if (base == null) {
+            return "new";
+        }
+        if (!r.result.equals(base.result)) {
+            return "changed (" + base.result + " -> " + r.result + ")";
+        }
+        StringBuilder worse = new StringBuilder();
+        boolean better = false;
+        for (int k = 0; k < COUNTS.length; k++) {
+            long d = r.counts[k] - base.counts[k];
+            if (d > 0) {
+                worse.append(worse.length() == 0 ? "slower: " : ", ")
+                     .append(COUNTS[k]).append(" +").append(d);
+            } else if (d < 0) {
+                better = true;
+            }
+        }
+        if (worse.length() > 0) {
+            return worse.toString();
+        }
+        return better ? "faster" : "same";
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+/***
+ * PhaseBench
+ * Measures each phase of the compiler on its own:
+ *
+ *   java PhaseBench [switches] [knobs] [-runs n] [file ...]
+ *
+ * The phases are scanning (Yylex, to the end of the input), parsing (the
+ * tokens already scanned), name analysis, type checking, folding and code
+ * generation (to a channel that throws the code away).  Every run compiles
+ * the input from scratch, timing each phase in turn, so that each phase
+ * works on the output of the one before it as it does in P6.  The first
+ * few runs warm up; for the timed runs (5 by default) the best and mean
+ * time of each phase are reported, with the operations (whole phases) per
+ * second of the mean, and the bytes allocated by the phase per operation
+ * and per second.
+ *
+ * Each file is measured separately; with no files, it measures a program
+ * made by ProgramGenerator with the given knobs, with 3000 functions
+ * (about 100000 lines) unless -functions is given.  The compiler
+ * switches (see Options) that change folding and code generation apply
+ * to every run; with -pcodegen, the bytes allocated on the pool's threads
+ * are not counted.  A phase that is not reached because of errors in the
+ * program is shown as "-".
+ ***/
+public class PhaseBench {
+    private static final int WARMUP = 3;
+
+    private static final String[] PHASES = {
+        "scan", "parse", "nameAnalysis", "typeCheck", "fold", "codeGen"
+    };
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        ProgramGenerator gen = new ProgramGenerator();
+        gen.functions = 3000;
+        int runs = 5;
+        int k = 0;
+        try {
+            while (k < args.length &&
+                   (options.parse(args[k]) || gen.parse(args[k]))) {
+                k++;
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            k = -1;
+        }
+        if (k >= 0 && k + 1 < args.length && args[k].equals("-runs")) {
+            runs = Integer.parseInt(args[k+1]);
+            k += 2;
+        }
+        if (k < 0 || (k < args.length && args[k].startsWith("-"))) {
+            System.err.println("usage: java PhaseBench [switches] " +
+                               "[knobs] [-runs n] [file ...]");
+            System.err.println(Options.usage());
+            System.err.println(ProgramGenerator.usage());
+            System.exit(-1);
+        }
+
+        if (k == args.length) {
+            bench("generated, " + gen.functions + " functions",
+                  gen.generate(), options, runs);
+        }
+        for (; k < args.length; k++) {
+            bench(args[k], Files.readAllBytes(Paths.get(args[k])),
+                  options, runs);
+        }
+    }
+
+    // the totals of one phase over the timed runs
+    private static class Result {
+        int runs;
+        long best = Long.MAX_VALUE;
+        long nanos;
+        long bytes;
+    }
+
+    private static void bench(String name, byte[] source, Options options,
+                              int runs) throws IOException {
+        Result[] results = new Result[PHASES.length];
+        for (int p = 0; p < PHASES.length; p++) {
+            results[p] = new Result();
+        }
+        int tokens = 0;
+        for (int run = 0; run < WARMUP + runs; run++) {
+            System.gc();  // don't collect one run's garbage in the next
+            tokens = compile(source, options,
+                             run >= WARMUP ? results : null);
+        }
+
+        System.out.println(name + ": " + source.length + " bytes, " +
+                           tokens + " tokens");
+        System.out.printf("%-13s %9s %9s %10s %10s %9s%n", "phase", "best ms",
+                          "mean ms", "ops/s", "MB/op", "MB/s");
+        for (int p = 0; p < PHASES.length; p++) {
+            Result r = results[p];
+            if (r.runs == 0) {
+                System.out.printf("%-13s %9s %9s %10s %10s %9s%n", PHASES[p],
+                                  "-", "-", "-", "-", "-");
+                continue;
+            }
+            double mean = (double)r.nanos / r.runs;
+            double mb = (double)r.bytes / r.runs / (1 << 20);
+            System.out.printf("%-13s %9.2f %9.2f %10.2f %10.2f %9.1f%n",
+                              PHASES[p], r.best / 1e6, mean / 1e6,
+                              1e9 / mean, mb, mb / (mean / 1e9));
+        }
+        System.out.println();
+    }
+
+    /***
+     * Compile source once, adding the time and allocation of each phase to
+     * results (unless it is null), and return the number of tokens.
+     ***/
+    private static int compile(byte[] source, Options options,
+                               Result[] results) throws IOException {
+        CompilationContext ctx = new CompilationContext(
+            new PrintStream(new ByteArrayOutputStream()), options);
+        if (options.cacheDir != null) {
+            ctx.cache = new CodeCache(options.cacheDir);
+        }
+        Clock clock = new Clock(results);
+        CompilationContext prev = ctx.enter();
+        try {
+            clock.start();
+            TokenList tokens = TokenList.scan(new Yylex(new InputStreamReader(
+                                   new ByteArrayInputStream(source)), ctx));
+            clock.stop(0);
+
+            clock.start();
+            ProgramNode program;
+            try {
+                program = (ProgramNode)new parser(tokens).parse().value;
+            } catch (SyntaxErrorException ex) {
+                return tokens.size();
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            clock.stop(1);
+
+            clock.start();
+            program.nameAnalysis(ctx);
+            clock.stop(2);
+
+            if (!ctx.hasErrors()) {
+                clock.start();
+                program.typeCheck(ctx);
+                clock.stop(3);
+            }
+
+            if (!ctx.hasErrors() && options.fold) {
+                clock.start();
+                program.fold(ctx);
+                clock.stop(4);
+            }
+
+            if (!ctx.hasErrors()) {
+                WritableByteChannel out =
+                    Channels.newChannel(OutputStream.nullOutputStream());
+                clock.start();
+                program.codeGen(ctx, out);
+                clock.stop(5);
+            }
+            return tokens.size();
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
+
+    // times the phases of one compile on the calling thread
+    private static class Clock {
+        private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+
+        private Result[] results;
+        private long nanos;
+        private long bytes;
+
+        Clock(Result[] results) {
+            this.results = results;
+        }
+
+        void start() {
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            nanos = System.nanoTime();
+        }
+
+        void stop(int phase) {
+            long t = System.nanoTime() - nanos;
+            long b = threads.getCurrentThreadAllocatedBytes() - bytes;
+            if (results != null) {
+                Result r = results[phase];
+                r.runs++;
+                r.best = Math.min(r.best, t);
+                r.nanos += t;
+                r.bytes += b;
+            }
+        }
+    }
+}
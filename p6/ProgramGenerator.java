@@ -0,0 +1,431 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+/***
+ * ProgramGenerator
+ * Writes random minim programs that compile without errors, for
+ * measuring how the compiler scales:
+ *
+ *   java ProgramGenerator [knobs] [file]
+ *
+ * writes a program to file (or to stdout).  The knobs are:
+ *   -seed=N       the seed of the random choices (1); the same knobs give
+ *                 the same program
+ *   -functions=N  the number of functions besides main (100)
+ *   -depth=N      how deeply if and while statements nest (3)
+ *   -exprdepth=N  how deeply expressions nest (3)
+ *   -stmts=N      the most statements in one block (5)
+ *   -structs=N    the number of struct types (10)
+ *   -fields=N     the most fields in one struct (4)
+ *   -idents=N     the number of names that fields, formals and locals are
+ *                 drawn from (50); the fewer there are, the more of them
+ *                 are shadowed
+ *   -strings=N    the number of different string literals (20)
+ *
+ * The program is built from the productions of minim.cup: struct
+ * declarations first, each of whose fields is an int, a bool or an
+ * earlier struct; then functions, with a global before about half of
+ * them, each one calling only functions declared before it; then main,
+ * which calls the last function.  Every expression is given the type its
+ * context needs, so the program passes name analysis and type checking.
+ * Code generation does not handle the fields of structs, so variables of
+ * struct type are declared but their fields are never used.  The program
+ * is meant to be compiled, not run: loops need not end.
+ ***/
+public class ProgramGenerator {
+    // the knobs, set by parse
+    long seed = 1;
+    int functions = 100;
+    int depth = 3;
+    int exprDepth = 3;
+    int stmts = 5;
+    int structs = 10;
+    int fields = 4;
+    int idents = 50;
+    int strings = 20;
+
+    // a variable, formal or field: its name and type ("int", "bool" or the
+    // name of a struct)
+    private static class Var {
+        String name;
+        String type;
+
+        Var(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    // a function declared so far
+    private static class Fn {
+        String name;
+        String ret;
+        Var[] formals;
+
+        Fn(String name, String ret, Var[] formals) {
+            this.name = name;
+            this.ret = ret;
+            this.formals = formals;
+        }
+    }
+
+    private Random rand;
+    private StringBuilder out;
+    private ArrayList<Fn> fns;
+    private ArrayList<ArrayList<Var>> scopes;  // globals first
+
+    public static void main(String[] args) throws IOException {
+        ProgramGenerator gen = new ProgramGenerator();
+        int k = 0;
+        try {
+            while (k < args.length && gen.parse(args[k])) {
+                k++;
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            k = -1;
+        }
+        if (k < 0 || args.length - k > 1) {
+            System.err.println("usage: java ProgramGenerator [knobs] [file]");
+            System.err.println(usage());
+            System.exit(-1);
+        }
+
+        byte[] program = gen.generate();
+        if (k == args.length) {
+            System.out.write(program);
+            System.out.flush();
+        } else {
+            try (OutputStream file = new FileOutputStream(args[k])) {
+                file.write(program);
+            }
+        }
+    }
+
+    /***
+     * parse
+     * If arg is one of the knobs, record it and return true; otherwise
+     * return false.  Throws IllegalArgumentException if arg is a knob with
+     * a bad value.
+     ***/
+    public boolean parse(String arg) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("-") || eq < 0) {
+            return false;
+        }
+        String knob = arg.substring(1, eq);
+        long val;
+        try {
+            val = Long.parseLong(arg.substring(eq + 1));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bad value in " + arg);
+        }
+        if (knob.equals("seed")) {
+            seed = val;
+            return true;
+        }
+        int min = knob.equals("idents") ? 1 : 0;  // a name to draw from
+        if (val < min || val > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bad value in " + arg);
+        }
+        switch (knob) {
+        case "functions": functions = (int)val; return true;
+        case "depth":     depth = (int)val;     return true;
+        case "exprdepth": exprDepth = (int)val; return true;
+        case "stmts":     stmts = (int)val;     return true;
+        case "structs":   structs = (int)val;   return true;
+        case "fields":    fields = (int)val;    return true;
+        case "idents":    idents = (int)val;    return true;
+        case "strings":   strings = (int)val;   return true;
+        default:          return false;
+        }
+    }
+
+    /***
+     * Return a short description of the knobs, for usage messages.
+     ***/
+    public static String usage() {
+        return "  -seed=N           seed of the random choices\n" +
+               "  -functions=N      number of functions besides main\n" +
+               "  -depth=N          nesting depth of if and while\n" +
+               "  -exprdepth=N      nesting depth of expressions\n" +
+               "  -stmts=N          most statements in a block\n" +
+               "  -structs=N        number of struct types\n" +
+               "  -fields=N         most fields in a struct\n" +
+               "  -idents=N         number of field and local names\n" +
+               "  -strings=N        number of different string literals";
+    }
+
+    /***
+     * Return the program the knobs describe.
+     ***/
+    public byte[] generate() {
+        rand = new Random(seed);
+        out = new StringBuilder();
+        fns = new ArrayList<Fn>();
+        scopes = new ArrayList<ArrayList<Var>>();
+        scopes.add(new ArrayList<Var>());
+
+        for (int s = 0; s < structs; s++) {
+            structDecl(s);
+        }
+        for (int f = 0; f < functions; f++) {
+            if (rand.nextBoolean()) {
+                Var g = new Var("g" + f, varType());
+                scopes.get(0).add(g);
+                varDecl(g, 0);
+            }
+            fnDecl("f" + f, f == 0 ? "int" : pick("int", "bool", "void"));
+        }
+        out.append("void main() {\n");
+        if (!fns.isEmpty()) {
+            indent(1);
+            out.append(call(fns.get(fns.size() - 1), 0)).append(";\n");
+        }
+        out.append("}\n");
+        return out.toString().getBytes();
+    }
+
+    // structDecl ::= STRUCT id LCURLY structBody RCURLY SEMICOLON
+    private void structDecl(int s) {
+        // a struct has at least one field
+        Var[] body = new Var[Math.min(1 + rand.nextInt(Math.max(fields, 1)),
+                                      idents)];
+        ArrayList<String> names = new ArrayList<String>();
+        out.append("struct S").append(s).append(" {\n");
+        for (int i = 0; i < body.length; i++) {
+            String type = pick("int", "bool");
+            if (s > 0 && rand.nextInt(4) == 0) {
+                type = "S" + rand.nextInt(s);
+            }
+            body[i] = new Var(freshName(names), type);
+            varDecl(body[i], 1);
+        }
+        out.append("};\n");
+    }
+
+    // varDecl ::= type id SEMICOLON | STRUCT id id SEMICOLON
+    private void varDecl(Var v, int level) {
+        indent(level);
+        if (v.type.startsWith("S")) {
+            out.append("struct ");
+        }
+        out.append(v.type).append(' ').append(v.name).append(";\n");
+    }
+
+    // fnDecl ::= type id formals fnBody
+    private void fnDecl(String name, String ret) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Var> scope = new ArrayList<Var>();
+        Var[] formals = new Var[Math.min(rand.nextInt(4), idents)];
+        out.append(ret).append(' ').append(name).append('(');
+        for (int i = 0; i < formals.length; i++) {
+            formals[i] = new Var(freshName(names), pick("int", "bool"));
+            scope.add(formals[i]);
+            out.append(i > 0 ? ", " : "").append(formals[i].type)
+               .append(' ').append(formals[i].name);
+        }
+        out.append(") {\n");
+
+        scopes.add(scope);
+        block(1, names);
+        if (!ret.equals("void")) {
+            indent(1);
+            out.append("return ").append(exp(ret, exprDepth)).append(";\n");
+        }
+        scopes.remove(scopes.size() - 1);
+        out.append("}\n");
+        fns.add(new Fn(name, ret, formals));
+    }
+
+    // varDeclList stmtList, in the innermost scope; names holds the names
+    // already declared in that scope
+    private void block(int level, ArrayList<String> names) {
+        ArrayList<Var> scope = scopes.get(scopes.size() - 1);
+        int locals = Math.min(rand.nextInt(4), idents - names.size());
+        for (int i = 0; i < locals; i++) {
+            Var v = new Var(freshName(names), varType());
+            scope.add(v);
+            varDecl(v, level);
+        }
+        int n = 1 + rand.nextInt(Math.max(stmts, 1));
+        for (int i = 0; i < n; i++) {
+            stmt(level);
+        }
+    }
+
+    private void stmt(int level) {
+        int kind = rand.nextInt(level <= depth ? 10 : 7);
+        if (kind >= 7) {  // if, if-else or while
+            String cond = exp("bool", exprDepth);
+            indent(level);
+            out.append(kind == 9 ? "while " : "if ").append(cond);
+            nested(level);
+            if (kind == 8) {
+                out.append(" else");
+                nested(level);
+            }
+            out.append('\n');
+            return;
+        }
+
+        String type = pick("int", "bool");
+        String loc = loc(type);
+        if (kind == 6 && !fns.isEmpty()) {
+            indent(level);
+            out.append(call(fns.get(rand.nextInt(fns.size())), exprDepth))
+               .append(";\n");
+            return;
+        }
+        if (kind == 5 || loc == null) {
+            indent(level);
+            out.append("disp << ");
+            if (strings > 0 && rand.nextBoolean()) {
+                out.append("\"string ").append(rand.nextInt(strings))
+                   .append("\\n\"");
+            } else {
+                out.append(exp(type, exprDepth));
+            }
+            out.append(";\n");
+            return;
+        }
+        indent(level);
+        if (kind == 4) {
+            out.append("input >> ").append(loc).append(";\n");
+        } else if (kind == 3 && type.equals("int")) {
+            out.append(loc).append(rand.nextBoolean() ? "++" : "--")
+               .append(";\n");
+        } else {
+            out.append(loc).append(" = ").append(exp(type, exprDepth))
+               .append(";\n");
+        }
+    }
+
+    // LCURLY varDeclList stmtList RCURLY, in a new scope
+    private void nested(int level) {
+        out.append(" {\n");
+        scopes.add(new ArrayList<Var>());
+        block(level + 1, new ArrayList<String>());
+        scopes.remove(scopes.size() - 1);
+        indent(level);
+        out.append('}');
+    }
+
+    // an expression of the given type, nested at most d deep
+    private String exp(String type, int d) {
+        if (d == 0 || rand.nextInt(3) == 0) {
+            return term(type, d);
+        }
+        if (type.equals("int")) {
+            switch (rand.nextInt(6)) {
+            case 0:  return "- " + exp("int", d - 1);  // not "--"!
+            case 1:  return "(" + exp("int", d - 1) + " / " +
+                            (1 + rand.nextInt(9)) + ")";
+            default: return "(" + exp("int", d - 1) +
+                            pick(" + ", " - ", " * ") + exp("int", d - 1) + ")";
+            }
+        }
+        switch (rand.nextInt(5)) {
+        case 0:  return "!" + exp("bool", d - 1);
+        case 1:  return "(" + exp("bool", d - 1) + pick(" && ", " || ") +
+                        exp("bool", d - 1) + ")";
+        case 2:  String t = pick("int", "bool");
+                 return "(" + exp(t, d - 1) + pick(" == ", " != ") +
+                        exp(t, d - 1) + ")";
+        default: return "(" + exp("int", d - 1) +
+                        pick(" < ", " > ", " <= ", " >= ") +
+                        exp("int", d - 1) + ")";
+        }
+    }
+
+    // term ::= loc | INTLITERAL | TRUE | FALSE | fncall, or an assignment
+    private String term(String type, int d) {
+        int kind = rand.nextInt(8);
+        String loc = loc(type);
+        if (kind < 3 && loc != null) {
+            return loc;
+        }
+        if (kind == 3 && d > 0) {
+            ArrayList<Fn> callees = new ArrayList<Fn>();
+            for (Fn fn : fns) {
+                if (fn.ret.equals(type)) {
+                    callees.add(fn);
+                }
+            }
+            if (!callees.isEmpty()) {
+                return call(callees.get(rand.nextInt(callees.size())), d - 1);
+            }
+        }
+        if (kind == 4 && d > 0 && loc != null) {
+            return "(" + loc + " = " + exp(type, d - 1) + ")";
+        }
+        if (type.equals("int")) {
+            return Integer.toString(rand.nextInt(1000));
+        }
+        return pick("true", "false");
+    }
+
+    // fncall ::= id LPAREN actualList RPAREN
+    private String call(Fn fn, int d) {
+        StringBuilder sb = new StringBuilder(fn.name).append('(');
+        for (int i = 0; i < fn.formals.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(exp(fn.formals[i].type, d));
+        }
+        return sb.append(')').toString();
+    }
+
+    // a random variable of the given type among the locals in scope and a
+    // few of the globals, or null
+    private String loc(String type) {
+        ArrayList<String> locs = new ArrayList<String>();
+        ArrayList<Var> globals = scopes.get(0);
+        for (int i = 0; i < 3 && !globals.isEmpty(); i++) {
+            Var g = globals.get(rand.nextInt(globals.size()));
+            if (g.type.equals(type)) {
+                locs.add(g.name);
+            }
+        }
+        ArrayList<String> seen = new ArrayList<String>();
+        for (int s = scopes.size() - 1; s > 0; s--) {
+            for (Var v : scopes.get(s)) {
+                if (!seen.contains(v.name)) {  // not shadowed
+                    seen.add(v.name);
+                    if (v.type.equals(type)) {
+                        locs.add(v.name);
+                    }
+                }
+            }
+        }
+        return locs.isEmpty() ? null : locs.get(rand.nextInt(locs.size()));
+    }
+
+    // the type of a global or local: int, bool or (one time in four) a
+    // struct
+    private String varType() {
+        if (structs > 0 && rand.nextInt(4) == 0) {
+            return "S" + rand.nextInt(structs);
+        }
+        return pick("int", "bool");
+    }
+
+    // a name from the pool that is not in names, which it is added to
+    private String freshName(ArrayList<String> names) {
+        String name;
+        do {
+            name = "v" + rand.nextInt(idents);
+        } while (names.contains(name));
+        names.add(name);
+        return name;
+    }
+
+    private String pick(String... choices) {
+        return choices[rand.nextInt(choices.length)];
+    }
+
+    private void indent(int level) {
+        for (int i = 0; i < level; i++) {
+            out.append("    ");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/***
+ * RegressSuite
+ * Checks that the code P6 generates computes what it should:
+ *
+ *   java RegressSuite [dir]
+ *
+ * compiles every minim program in dir (regress by default) once for each
+ * of CONFIGS, runs the code on MipsSim with no input, and compares what
+ * it prints with dir/NAME.out, where NAME.minim is the program.  A run
+ * that does not compile, faults, goes on for more than LIMIT instructions
+ * or prints anything else fails, and so does the suite.
+ ***/
+public class RegressSuite {
+    private static final long LIMIT = 50000000;
+
+    // the name of each configuration, then its compiler switches
+    private static final String[][] CONFIGS = {
+        {"default"},
+        {"regalloc", "-regalloc"},
+        {"nopeep", "-peephole=none"}
+    };
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 || (args.length == 1 && args[0].startsWith("-"))) {
+            System.err.println("usage: java RegressSuite [dir]");
+            System.exit(-1);
+        }
+        File dir = new File(args.length > 0 ? args[0] : "regress");
+        File[] programs = dir.listFiles((d, name) -> name.endsWith(".minim"));
+        if (programs == null || programs.length == 0) {
+            System.err.println("no programs in " + dir);
+            System.exit(-1);
+        }
+        Arrays.sort(programs);
+
+        int runs = 0;
+        int failures = 0;
+        for (File program : programs) {
+            String name = program.getName();
+            File expectFile = new File(dir, name.substring(0, name.length() -
+                                                           ".minim".length()) +
+                                                ".out");
+            String expected = expectFile.exists()
+                ? new String(Files.readAllBytes(expectFile.toPath()))
+                : null;
+            for (String[] config : CONFIGS) {
+                runs++;
+                String verdict = expected == null
+                    ? "no " + expectFile.getName()
+                    : check(program, config, expected);
+                if (!verdict.equals("ok")) {
+                    failures++;
+                }
+                System.out.printf("%-20s %-9s %s%n", name, config[0], verdict);
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " of " + runs + " runs failed");
+            System.exit(-1);
+        }
+    }
+
+    /***
+     * Compile program with the switches of config, run it on MipsSim and
+     * return "ok" if it printed expected, or else what went wrong.
+     ***/
+    private static String check(File program, String[] config,
+                                String expected) throws IOException
+    {
+        Options options = new Options();
+        for (int k = 1; k < config.length; k++) {
+            options.parse(config[k]);
+        }
+
+        Path asm = Files.createTempFile("regress", ".s");
+        try {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            CompilationContext ctx =
+                new CompilationContext(new PrintStream(err, true), options);
+            if (!P6.compile(program.getPath(), asm.toString(), ctx) ||
+                ctx.hasErrors()) {
+                System.err.print(err);
+                return "failed (error)";
+            }
+
+            MipsSim sim;
+            try {
+                sim = MipsSim.assemble(new String(Files.readAllBytes(asm)));
+            } catch (IllegalArgumentException ex) {
+                return "failed (" + ex.getMessage() + ")";
+            }
+            sim.setLimit(LIMIT);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                sim.run(new ByteArrayInputStream(new byte[0]),
+                        new PrintStream(output));
+            } catch (IllegalStateException ex) {
+                return "failed (" + ex.getMessage() + ")";
+            }
+            String got = output.toString();
+            if (!got.equals(expected)) {
+                return "wrong output: expected\n" + expected +
+                       "but got\n" + got;
+            }
+            return "ok";
+        } finally {
+            Files.deleteIfExists(asm);
+        }
+    }
+}
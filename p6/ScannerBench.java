@@ -0,0 +1,146 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java_cup.runtime.*;
+
+/***
+ * ScannerBench
+ * Measures how many tokens per second Yylex and TableScanner scan:
+ *
+ *   java ScannerBench [-lines n] [-runs n] [file ...]
+ *
+ * With no files, it scans a generated program of about n lines (200000 by
+ * default) that uses every kind of token; otherwise it scans the given
+ * files, joined together.  Both scanners read from memory, so the time is
+ * that of scanning alone.  Each one scans the input a few times to warm
+ * up, and then the best of the timed runs (5 by default) is reported.
+ *
+ * The two token streams (codes, line and character numbers) are compared
+ * as well, and a difference is reported.
+ ***/
+public class ScannerBench {
+    private static final int WARMUP = 3;
+
+    public static void main(String[] args) throws IOException {
+        int lines = 200000;
+        int runs = 5;
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        int k = 0;
+        for (; k + 1 < args.length && args[k].startsWith("-"); k += 2) {
+            if (args[k].equals("-lines")) {
+                lines = Integer.parseInt(args[k+1]);
+            } else if (args[k].equals("-runs")) {
+                runs = Integer.parseInt(args[k+1]);
+            } else {
+                System.err.println("usage: java ScannerBench [-lines n] " +
+                                   "[-runs n] [file ...]");
+                System.exit(-1);
+            }
+        }
+        for (; k < args.length; k++) {
+            source.write(Files.readAllBytes(Paths.get(args[k])));
+            source.write('\n');
+        }
+        byte[] bytes = source.size() > 0 ? source.toByteArray()
+                                         : generate(lines);
+
+        Result yylex = time(false, bytes, runs);
+        Result table = time(true, bytes, runs);
+
+        System.out.println("input: " + bytes.length + " bytes, " +
+                           yylex.tokens + " tokens");
+        report("Yylex", yylex, yylex);
+        report("TableScanner", table, yylex);
+        if (yylex.tokens != table.tokens || yylex.hash != table.hash) {
+            System.out.println("the scanners returned different tokens");
+        }
+    }
+
+    private static void report(String name, Result result, Result base) {
+        double secs = result.nanos / 1e9;
+        System.out.printf("%-14s %9.1f ms %8.2f M tokens/s %6.2fx%n", name,
+                          secs * 1e3, result.tokens / secs / 1e6,
+                          (double)base.nanos / result.nanos);
+    }
+
+    // the token count and hash of one scan, and the best time of all runs
+    private static class Result {
+        int tokens;
+        long hash;
+        long nanos = Long.MAX_VALUE;
+    }
+
+    private static Result time(boolean table, byte[] bytes, int runs)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes);
+        buf.flip();
+
+        Result result = new Result();
+        for (int run = 0; run < WARMUP + runs; run++) {
+            CompilationContext ctx = new CompilationContext(
+                new PrintStream(new ByteArrayOutputStream()), new Options());
+            CompilationContext prev = ctx.enter();
+            try {
+                long start = System.nanoTime();
+                Scanner scanner = table
+                    ? new TableScanner(buf.duplicate(), ctx)
+                    : new Yylex(new InputStreamReader(
+                                    new ByteArrayInputStream(bytes)), ctx);
+                result.tokens = 0;
+                result.hash = 0;
+                for (Symbol S = next(scanner); S.sym != sym.EOF;
+                     S = next(scanner)) {
+                    TokenVal val = (TokenVal)S.value;
+                    result.tokens++;
+                    result.hash = 31 * result.hash + S.sym;
+                    result.hash = 31 * result.hash + val.lineNum();
+                    result.hash = 31 * result.hash + val.charNum();
+                }
+                long nanos = System.nanoTime() - start;
+                if (run >= WARMUP) {
+                    result.nanos = Math.min(result.nanos, nanos);
+                }
+            } finally {
+                CompilationContext.leave(prev);
+            }
+        }
+        return result;
+    }
+
+    private static Symbol next(Scanner scanner) throws IOException {
+        try {
+            return scanner.next_token();
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /***
+     * Return about the given number of lines of minim that use every kind
+     * of token.
+     ***/
+    static byte[] generate(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; 13 * n < lines; n++) {
+            sb.append("struct S").append(n).append(" {\n");
+            sb.append("    int a; bool b;\n");
+            sb.append("};\n");
+            sb.append("int g").append(n).append(";\n");
+            sb.append("int f").append(n).append("(int x, bool y) {\n");
+            sb.append("    int i;\n");
+            sb.append("    i = x * 2 + 31 - (x / 4);   % a comment\n");
+            sb.append("    if ((i < 10) && !y || (i >= 2)) ")
+              .append("{ disp << \"line\\n\"; } else { i++; }\n");
+            sb.append("    while (i != 0) { i--; input >> g").append(n)
+              .append("; }\n");
+            sb.append("    y = (i == 1) || true && false; //* another\n");
+            sb.append("    disp << f").append(n).append("(i, y <= x);\n");
+            sb.append("    return i;\n");
+            sb.append("}\n");
+        }
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java_cup.runtime.*;
+
+/***
+ * ScannerPositionTest
+ * Checks that the four ways P6 can scan a source file give every token,
+ * error and warning the same line and character numbers:
+ *
+ *   java ScannerPositionTest
+ *
+ * scans each of INPUTS with Yylex, with TableScanner reading a buffer
+ * (-tablescan), with TableScanner reading a SourceText (-mmap) and into a
+ * TokenStream (-tokens), and exits with a nonzero status if any of them
+ * differs from Yylex.  Yylex gives up on a carriage return outside a
+ * comment or string and on bytes outside ASCII; on such inputs -mmap and
+ * -tokens are compared with -tablescan, which counts lines and characters
+ * as Yylex does.
+ ***/
+public class ScannerPositionTest {
+    private static final String[] INPUTS = {
+        "x--; y -- ; z = --3;\n",
+        "int a;\n  bool b; -- c\n--d\n",
+        "a\rb\n",
+        "a\r\nb c\n",
+        "a\r\rb\r \nc\n",
+        "% a comment\rx\ny\n",
+        "//* a comment\r\nx --y\n",
+        "disp << \"a\rb\"; x\n",
+        "disp << \"abc\n x\n",
+        "\"a\\qb\" x\n",
+        "\"a\\q\n x\n",
+        "\"a\\q\rb x\n",
+        "\"\u00e9t\u00e9\" x -- y\n",
+        "# x $ -- y\n",
+        "x = 99999999999; y\n",
+        "a\n\n\n  b"
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        for (String input : INPUTS) {
+            byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+            String base = "Yylex";
+            String expected;
+            try {
+                expected = scan("yylex", bytes);
+            } catch (Error | IOException ex) {
+                base = "-tablescan";
+                expected = scan("tablescan", bytes);
+            }
+            for (String mode : new String[] {"tablescan", "mmap", "tokens"}) {
+                String got = scan(mode, bytes);
+                if (!got.equals(expected)) {
+                    failures++;
+                    System.out.println("-" + mode + " differs from " + base +
+                                       " on " + quote(input) +
+                                       ": expected\n" + expected +
+                                       "but got\n" + got);
+                }
+            }
+        }
+        if (failures > 0) {
+            System.exit(-1);
+        }
+        System.out.println("ScannerPositionTest: ok");
+    }
+
+    /***
+     * Scan bytes the given way and return each token's code, line and
+     * character number, one to a line, and then the diagnostics.
+     ***/
+    private static String scan(String mode, byte[] bytes) throws IOException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        CompilationContext ctx =
+            new CompilationContext(new PrintStream(err, true), new Options());
+        CompilationContext prev = ctx.enter();
+        StringBuilder sb = new StringBuilder();
+        try {
+            ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+            buf.put(bytes);
+            buf.flip();
+            if (mode.equals("tokens")) {
+                TokenStream tokens = TokenStream.scan(new SourceText(buf), ctx);
+                for (int i = 0; i < tokens.size(); i++) {
+                    sb.append(tokens.kind(i)).append(' ')
+                      .append(tokens.lineNum(i)).append(':')
+                      .append(tokens.charNum(i)).append('\n');
+                }
+            } else {
+                Scanner scanner;
+                if (mode.equals("yylex")) {
+                    scanner = new Yylex(new InputStreamReader(
+                        new ByteArrayInputStream(bytes),
+                        StandardCharsets.UTF_8), ctx);
+                } else if (mode.equals("mmap")) {
+                    scanner = new TableScanner(new SourceText(buf), ctx);
+                } else {
+                    scanner = new TableScanner(buf, ctx);
+                }
+                for (Symbol S = next(scanner); S.sym != sym.EOF;
+                     S = next(scanner)) {
+                    TokenVal val = (TokenVal)S.value;
+                    sb.append(S.sym).append(' ').append(val.lineNum())
+                      .append(':').append(val.charNum()).append('\n');
+                }
+            }
+        } finally {
+            CompilationContext.leave(prev);
+        }
+        return sb.append(err.toString()).toString();
+    }
+
+    private static Symbol next(Scanner scanner) throws IOException {
+        try {
+            return scanner.next_token();
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static String quote(String input) {
+        return "\"" + input.replace("\n", "\\n").replace("\r", "\\r") + "\"";
+    }
+}
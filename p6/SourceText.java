@@ -0,0 +1,120 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/***
+ * The SourceText class is the text of one source file, memory-mapped so
+ * that TableScanner can read its (ASCII) bytes where they are, without
+ * copying or decoding them.
+ *
+ * Tokens read from a SourceText only record their byte offset (see
+ * TokenVal); lineNum and charNum turn an offset into a line and character
+ * number when a diagnostic needs one.  The start of every line is only
+ * found the first time that happens.  Lines end at \n, \r or \r\n, as they
+ * do for Yylex, and as for Yylex only a \n starts the character count
+ * again.  The scanner notes where else a character number is not the
+ * distance from there, such as after a "--" (see shift).
+ ***/
+public class SourceText {
+    private ByteBuffer bytes;
+    private int[] lineStarts = null;  // offset of the start of each line
+    private int lines;
+
+    // the shifts noted by the scanner: their offsets, in increasing order,
+    // and how many more characters than bytes the line has come to there
+    private int[] shiftStarts = new int[16];
+    private int[] shifts = new int[16];
+    private int shiftCount = 0;
+
+    public SourceText(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /***
+     * Map the given file into memory.  Throws FileNotFoundException if it
+     * cannot be opened.
+     ***/
+    public static SourceText map(String fileName) throws IOException {
+        FileChannel channel = new FileInputStream(fileName).getChannel();
+        try {
+            return new SourceText(channel.map(FileChannel.MapMode.READ_ONLY,
+                                              0, channel.size()));
+        } finally {
+            channel.close();  // the mapping stays valid
+        }
+    }
+
+    /***
+     * Return the bytes of the text, as a buffer of their own.
+     ***/
+    public ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    /***
+     * Return the (1-based) number of the line the given offset is on.
+     ***/
+    public int lineNum(int offset) {
+        if (lineStarts == null) {
+            indexLines();
+        }
+        int k = Arrays.binarySearch(lineStarts, 0, lines, offset);
+        return k >= 0 ? k + 1 : -k - 1;
+    }
+
+    /***
+     * Return the (1-based) number of the character at the given offset on
+     * its line.
+     ***/
+    public int charNum(int offset) {
+        int line = lineNum(offset);  // indexes the lines if need be
+        int k = line - 1;
+        while (k > 0 && bytes.get(lineStarts[k] - 1) == '\r') {
+            k--;  // a bare \r does not start the count again
+        }
+        int start = lineStarts[k];
+        int s = Arrays.binarySearch(shiftStarts, 0, shiftCount, offset);
+        if (s < 0) {
+            s = -s - 2;  // the last shift before offset
+        }
+        int shift = s >= 0 && shiftStarts[s] >= start ? shifts[s] : 0;
+        return offset - start + 1 + shift;
+    }
+
+    /***
+     * Note that from the given offset to the next \n (or the next shift),
+     * character numbers are shift more than the number of bytes since the
+     * last \n.  Offsets must be given in increasing order.
+     ***/
+    void shift(int offset, int shift) {
+        if (shiftCount == shifts.length) {
+            shiftStarts = Arrays.copyOf(shiftStarts, 2 * shiftCount);
+            shifts = Arrays.copyOf(shifts, 2 * shiftCount);
+        }
+        shiftStarts[shiftCount] = offset;
+        shifts[shiftCount] = shift;
+        shiftCount++;
+    }
+
+    private void indexLines() {
+        int[] starts = new int[64];
+        int n = 0;
+        starts[n++] = bytes.position();
+        int limit = bytes.limit();
+        for (int p = bytes.position(); p < limit; p++) {
+            int b = bytes.get(p);
+            if (b == '\r' && p + 1 < limit && bytes.get(p + 1) == '\n') {
+                p++;
+            } else if (b != '\r' && b != '\n') {
+                continue;
+            }
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * n);
+            }
+            starts[n++] = p + 1;
+        }
+        lines = n;
+        lineStarts = starts;
+    }
+}
@@ -5,8 +5,10 @@ import java.util.*;
  * Each Sym contains a type (a Type).
  ***/
 public class Sym {
+    // the offset of a global, which lives in .data instead of a frame
+    public static final int GLOBAL = 1;
+
     private Type type;
-    private static int localOffset = -8;
     private int globalOffset = 0;
     
     public Sym(Type type) {
@@ -18,19 +20,20 @@ public class Sym {
     }
     
     public String toString() {
-        if(this.globalOffset==1){
+        if(this.globalOffset==GLOBAL){
             return ("global, "+type.toString());
         }else{
             return (this.globalOffset+", "+type.toString());
         }
     }
 
+    // the offset of the next local lives in the current CompilationContext
     public static int getLocalOffset() {
-        return localOffset;
+        return CompilationContext.current().localOffset;
     }
 
     public static void setLocalOffset(int localOffset) {
-        Sym.localOffset = localOffset;
+        CompilationContext.current().localOffset = localOffset;
     }
 
     public int getGlobalOffset() {
@@ -40,6 +43,11 @@ public class Sym {
     public void setGlobalOffset(int globalOffset) {
         this.globalOffset = globalOffset;
     }
+
+    // the bytes a variable of this symbol takes
+    public int getSize() {
+        return 4;
+    }
 }
 
 /***
@@ -56,7 +64,7 @@ class FnSym extends Sym {
     private int localSize = 0;
     
     public FnSym(Type type, int numparams) {
-        super(new FnType());
+        super(Type.FN);
         returnType = type;
         numParams = numparams;
     }
@@ -121,32 +129,52 @@ class StructSym extends Sym {
     // new fields
     private IdNode structType;  // name of the struct type
     
+    // id must already be linked to the StructDefSym of its struct type
     public StructSym(IdNode id) {
-        super(new StructType(id));
+        super(((StructDefSym)id.sym()).getStructType());
         structType = id;
     }
 
     public IdNode getStructType() {
         return structType;
     }    
+
+    public int getSize() {
+        return ((StructDefSym)structType.sym()).getSize();
+    }
 }
 
 /***
  * The StructDefSym class is a subclass of the Sym class just for the 
  * definition of a struct type. 
  * Each StructDefSym contains a symbol table to hold information about its 
- * fields.
+ * fields, and the one StructType shared by every variable of the struct.
  ***/
 class StructDefSym extends Sym {
     // new fields
     private SymTable symTab;
+    private StructType structType;
+    private int size;  // of a variable of this type
     
-    public StructDefSym(SymTable table) {
-        super(new StructDefType());
+    public StructDefSym(SymTable table, IdNode id) {
+        super(Type.STRUCT_DEF);
         symTab = table;
+        structType = new StructType(id);
     }
 
     public SymTable getSymTable() {
         return symTab;
     }
+
+    public StructType getStructType() {
+        return structType;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
 }
@@ -1,65 +1,139 @@
 import java.util.*;
 
+/***
+ * The SymTable class keeps all of the scopes in one hash table.  Each name
+ * maps to its innermost declaration, which links to the declaration it
+ * shadows in an enclosing scope.  The names declared in the open scopes
+ * are logged in declaration order so that removeScope can undo exactly the
+ * declarations of the innermost scope.  Lookups are a single hash probe
+ * and leaving a scope costs one probe per name declared in it.
+ *
+ * Names are the int ids handed out by the compilation's NameTable.
+ ***/
 public class SymTable {
-	private List<HashMap<String, Sym>> list;
-	
+	private IntMap<Entry> table;
+	private int[] log;               // names declared in the open scopes
+	private int logSize;
+	private int[] scopeStart;        // where each open scope starts in log
+	private int depth;               // number of open scopes
+	private BitSet refs;             // see recordRefs
+	private CompileStats stats;      // counts decls and scopes, or null
+
 	public SymTable() {
-		list = new LinkedList<HashMap<String, Sym>>();
-		list.add(new HashMap<String, Sym>());
+		stats = CompilationContext.current().stats;
+		table = new IntMap<Entry>();
+		log = new int[16];
+		logSize = 0;
+		scopeStart = new int[8];
+		depth = 0;
+		addScope();
 	}
-	
-	public void addDecl(String name, Sym sym) 
+
+	public void addDecl(int name, Sym sym)
 	throws DuplicateSymException, EmptySymTableException {
-		if (name == null || sym == null)
+		if (name < 0 || sym == null)
 			throw new IllegalArgumentException();
-		
-		if (list.isEmpty())
+
+		if (depth == 0)
 			throw new EmptySymTableException();
-		
-		HashMap<String, Sym> symTab = list.get(0);
-		if (symTab.containsKey(name))
+
+		Entry entry = table.get(name);
+		if (entry != null && entry.depth == depth)
 			throw new DuplicateSymException();
-		
-		symTab.put(name, sym);
+
+		table.put(name, new Entry(sym, depth, entry));
+		if (logSize == log.length)
+			log = Arrays.copyOf(log, 2 * logSize);
+		log[logSize++] = name;
+		if (stats != null)
+			stats.symbols++;
 	}
-	
+
 	public void addScope() {
-		list.add(0, new HashMap<String, Sym>());
+		if (depth == scopeStart.length)
+			scopeStart = Arrays.copyOf(scopeStart, 2 * depth);
+		scopeStart[depth++] = logSize;
+		if (stats != null)
+			stats.scopes++;
 	}
-	
-	public Sym lookupLocal(String name) 
+
+	public Sym lookupLocal(int name)
 	throws EmptySymTableException {
-		if (list.isEmpty())
+		if (depth == 0)
 			throw new EmptySymTableException();
-		
-		HashMap<String, Sym> symTab = list.get(0); 
-		return symTab.get(name);
+
+		Entry entry = table.get(name);
+		if (entry != null && entry.depth == depth)
+			return entry.sym;
+		return null;
 	}
-	
-	public Sym lookupGlobal(String name) 
+
+	public Sym lookupGlobal(int name)
 	throws EmptySymTableException {
-		if (list.isEmpty())
+		if (depth == 0)
 			throw new EmptySymTableException();
-		
-		for (HashMap<String, Sym> symTab : list) {
-			Sym sym = symTab.get(name);
-			if (sym != null)
-				return sym;
-		}
-		return null;
+
+		Entry entry = table.get(name);
+		if (entry == null)
+			return null;
+		if (refs != null && entry.depth == 1)
+			refs.set(name);
+		return entry.sym;
+	}
+
+	/***
+	 * From now on, have lookupGlobal set the bit of each name it finds
+	 * declared in the outermost scope in refs; stop if refs is null.
+	 ***/
+	public void recordRefs(BitSet refs) {
+		this.refs = refs;
 	}
-	
+
 	public void removeScope() throws EmptySymTableException {
-		if (list.isEmpty())
+		if (depth == 0)
 			throw new EmptySymTableException();
-		list.remove(0);
+
+		int start = scopeStart[--depth];
+		while (logSize > start) {
+			int name = log[--logSize];
+			Entry entry = table.get(name);
+			if (entry.shadowed == null)
+				table.remove(name);
+			else
+				table.put(name, entry.shadowed);
+		}
 	}
-	
+
 	public void print() {
+		NameTable names = CompilationContext.current().names;
 		System.out.print("\n** Sym Table **\n");
-		for (HashMap<String, Sym> symTab : list) {
+		for (int d = depth; d > 0; d--) {
+			int end = (d == depth) ? logSize : scopeStart[d];
+			HashMap<String, Sym> symTab = new HashMap<String, Sym>();
+			for (int k = scopeStart[d - 1]; k < end; k++) {
+				Entry entry = table.get(log[k]);
+				while (entry.depth != d)
+					entry = entry.shadowed;
+				symTab.put(names.name(log[k]), entry.sym);
+			}
 			System.out.println(symTab.toString());
 		}
 		System.out.println();
 	}
+
+	/***
+	 * One declaration of a name: its symbol, the depth of the scope it was
+	 * declared in and the declaration of the same name that it hides.
+	 ***/
+	private static class Entry {
+		Sym sym;
+		int depth;
+		Entry shadowed;
+
+		Entry(Sym sym, int depth, Entry shadowed) {
+			this.sym = sym;
+			this.depth = depth;
+			this.shadowed = shadowed;
+		}
+	}
 }
@@ -0,0 +1,3 @@
+public class SyntaxErrorException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,591 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java_cup.runtime.*;
+
+/***
+ * The TableScanner class is a hand-written scanner for minim that can be
+ * used in place of the JLex-generated Yylex: it returns the same tokens,
+ * with the same TokenVals, and reports the same errors and warnings.
+ *
+ * It reads bytes straight out of a ByteBuffer (a direct or memory-mapped
+ * one, say) instead of decoding a Reader into a char buffer.  Keywords,
+ * identifiers, int literals, operators, white space and comments are
+ * recognized by a DFA whose transition table is built once, when the class
+ * is loaded; a token is the longest match, as in JLex.  Only string
+ * literals, error messages and names seen for the first time become
+ * Strings.
+ *
+ * Line numbers are counted the way Yylex counts them (\r, \n and \r\n all
+ * end a line) and character numbers copy its quirks, such as "--" counting
+ * as one character and only \n starting the count again.  Bytes outside
+ * ASCII and carriage returns outside comments and strings, on which Yylex
+ * gives up, are reported as illegal characters.
+ *
+ * Scanning a SourceText, it does not keep track of lines at all: each
+ * token records only its byte offset, and its line and character numbers
+ * are worked out from that if a diagnostic needs them (see TokenVal).  A
+ * token whose character number is not the one its offset on the line
+ * gives is noted in the SourceText (see SourceText.shift), so that the
+ * numbers come out the same either way.
+ ***/
+public class TableScanner implements Scanner {
+    // what an accepting state of the DFA stands for: a token code from sym,
+    // or one of these
+    private static final int NONE = -1;        // not an accepting state
+    private static final int WHITESPACE = -2;
+    private static final int NEWLINE = -3;
+    private static final int COMMENT = -4;     // the rest of the line
+    private static final int STRING = -5;      // scanned by string()
+
+    private static final int START = 0;
+    private static final int DEAD = -1;
+
+    // the DFA: state s goes to NEXT[s*128 + b] on (ASCII) byte b
+    private static final int[] NEXT;
+    private static final int[] ACCEPT;
+    static {
+        DfaBuilder dfa = new DfaBuilder();
+        dfa.keyword("bool", sym.BOOL);
+        dfa.keyword("int", sym.INT);
+        dfa.keyword("void", sym.VOID);
+        dfa.keyword("true", sym.TRUE);
+        dfa.keyword("false", sym.FALSE);
+        dfa.keyword("struct", sym.STRUCT);
+        dfa.keyword("input", sym.INPUT);
+        dfa.keyword("disp", sym.DISP);
+        dfa.keyword("if", sym.IF);
+        dfa.keyword("else", sym.ELSE);
+        dfa.keyword("while", sym.WHILE);
+        dfa.keyword("return", sym.RETURN);
+        dfa.identifiers(sym.ID);
+        dfa.loop("0123456789", sym.INTLITERAL);
+        dfa.loop(" \t", WHITESPACE);
+        dfa.fixed("\n", NEWLINE);
+        dfa.fixed("\"", STRING);
+        dfa.fixed("//*", COMMENT);
+        dfa.fixed("%", COMMENT);
+        dfa.fixed("{", sym.LCURLY);
+        dfa.fixed("}", sym.RCURLY);
+        dfa.fixed("(", sym.LPAREN);
+        dfa.fixed(")", sym.RPAREN);
+        dfa.fixed(";", sym.SEMICOLON);
+        dfa.fixed(",", sym.COMMA);
+        dfa.fixed(".", sym.DOT);
+        dfa.fixed("<<", sym.WRITE);
+        dfa.fixed(">>", sym.READ);
+        dfa.fixed("++", sym.PLUSPLUS);
+        dfa.fixed("--", sym.MINUSMINUS);
+        dfa.fixed("+", sym.PLUS);
+        dfa.fixed("-", sym.MINUS);
+        dfa.fixed("*", sym.TIMES);
+        dfa.fixed("/", sym.DIVIDE);
+        dfa.fixed("!", sym.NOT);
+        dfa.fixed("&&", sym.AND);
+        dfa.fixed("||", sym.OR);
+        dfa.fixed("==", sym.EQUALS);
+        dfa.fixed("!=", sym.NOTEQUALS);
+        dfa.fixed("<", sym.LESS);
+        dfa.fixed(">", sym.GREATER);
+        dfa.fixed("<=", sym.LESSEQ);
+        dfa.fixed(">=", sym.GREATEREQ);
+        dfa.fixed("=", sym.ASSIGN);
+        NEXT = dfa.next();
+        ACCEPT = dfa.accept();
+    }
+
+    private CompilationContext ctx;
+    private SourceText source = null;  // if tokens only record offsets
+    private ByteBuffer in;
+    private int pos;           // start of the next token
+    private int limit;
+    private int lineNum = 1;
+    private int charNum = 1;
+    private boolean lastWasCr = false;
+    private int lineStart;     // offset just after the last \n
+    private int lineShift = 0; // the last shift noted on this line
+
+    // the token scan() found last
+    private int tokStart;
+    private int tokLength;
+    private int tokValue;
+    private int tokLineNum;
+    private int tokCharNum;
+
+    /***
+     * Scan the bytes of in from its position to its limit.
+     ***/
+    public TableScanner(ByteBuffer in, CompilationContext ctx) {
+        this.in = in;
+        this.ctx = ctx;
+        pos = in.position();
+        limit = in.limit();
+        lineStart = pos;
+    }
+
+    /***
+     * Scan the given text; tokens only record their offsets.
+     ***/
+    public TableScanner(SourceText source, CompilationContext ctx) {
+        this(source.bytes(), ctx);
+        this.source = source;
+    }
+
+    /***
+     * Read the whole of the given file into a direct buffer, ready to be
+     * scanned.  Throws FileNotFoundException if it cannot be opened.
+     ***/
+    public static ByteBuffer read(String fileName) throws IOException {
+        FileChannel channel = new FileInputStream(fileName).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocateDirect((int)channel.size());
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            }
+            buf.flip();
+            return buf;
+        } finally {
+            channel.close();
+        }
+    }
+
+    public Symbol next_token() {
+        int kind = scan();
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+
+        case sym.ID:
+            String name = ctx.names.name(tokValue);
+            return new Symbol(sym.ID, source == null
+                ? new IdTokenVal(tokLineNum, tokCharNum, tokValue, name)
+                : new IdTokenVal(source, tokStart, tokValue, name));
+
+        case sym.INTLITERAL:
+            return new Symbol(sym.INTLITERAL, source == null
+                ? new IntLitTokenVal(tokLineNum, tokCharNum, tokValue)
+                : new IntLitTokenVal(source, tokStart, tokValue));
+
+        case sym.STRINGLITERAL:
+            String strVal = text(tokStart, tokStart + tokLength);
+            return new Symbol(sym.STRINGLITERAL, source == null
+                ? new StrLitTokenVal(tokLineNum, tokCharNum, strVal)
+                : new StrLitTokenVal(source, tokStart, strVal));
+
+        default:  // keywords and operators
+            return new Symbol(kind, source == null
+                ? new TokenVal(tokLineNum, tokCharNum)
+                : new TokenVal(source, tokStart));
+        }
+    }
+
+    /***
+     * Scan the next token and return its code from sym (sym.EOF at the end
+     * of the input) without making any objects for it; tokenStart,
+     * tokenLength and tokenValue then describe the token.  Errors and
+     * warnings are reported as they are found.
+     ***/
+    int scan() {
+        while (pos < limit) {
+            // run the DFA as far as it goes, remembering the last accept
+            int state = START;
+            int accept = NONE;
+            int end = pos;
+            for (int p = pos; p < limit; p++) {
+                int b = in.get(p);
+                if (b < 0) {
+                    break;  // not ASCII
+                }
+                state = NEXT[(state << 7) | b];
+                if (state == DEAD) {
+                    break;
+                }
+                if (ACCEPT[state] != NONE) {
+                    accept = ACCEPT[state];
+                    end = p + 1;
+                }
+            }
+
+            int start = pos;
+            int len = end - start;
+            switch (accept) {
+            case NONE:
+                illegalChar();
+                continue;
+
+            case WHITESPACE:
+                pos = end;
+                charNum += len;
+                lastWasCr = false;
+                continue;
+
+            case NEWLINE:
+                pos = end;
+                countLines(start, end);
+                charNum = 1;
+                lineStart = end;
+                lineShift = 0;
+                continue;
+
+            case COMMENT:
+                // comment - ignore. Note: don't need to update char num
+                // since everything to end of line will be ignored
+                while (end < limit && in.get(end) != '\n') {
+                    end++;
+                }
+                pos = end;
+                countLines(start, end);
+                continue;
+
+            case STRING:
+                end = string(start);
+                if (end < 0) {
+                    continue;
+                }
+                accept = sym.STRINGLITERAL;
+                len = chars(start, end);
+                break;
+
+            case sym.ID:
+                // intern straight from the buffer; no String unless it is new
+                tokValue = ctx.names.intern(in, start, len);
+                break;
+
+            case sym.INTLITERAL:
+                tokValue = intValue(start, end);
+                break;
+
+            case sym.MINUSMINUS:
+                len = 1;  // Yylex counts "--" as one character
+                break;
+            }
+            tokStart = start;
+            tokLength = end - start;
+            tokLineNum = lineNum;
+            tokCharNum = charNum;
+            if (source != null && charNum - (start - lineStart + 1) !=
+                                  lineShift) {
+                lineShift = charNum - (start - lineStart + 1);
+                source.shift(start, lineShift);
+            }
+            pos = end;
+            charNum += len;
+            if (accept == sym.STRINGLITERAL) {
+                countLines(start, end);
+            } else {
+                lastWasCr = false;
+            }
+            return accept;
+        }
+        tokStart = limit;
+        tokLength = 0;
+        return sym.EOF;
+    }
+
+    // the token scan() found last: its offset, length, and its name id or
+    // int value if it is an ID or int literal
+    int tokenStart() {
+        return tokStart;
+    }
+
+    int tokenLength() {
+        return tokLength;
+    }
+
+    int tokenValue() {
+        return tokValue;
+    }
+
+    // the line and character numbers of a diagnostic about the token that
+    // starts at start; character numbers are kept either way
+    private int lineNum(int start) {
+        return source == null ? lineNum : source.lineNum(start);
+    }
+
+    private int charNum(int start) {
+        return charNum;
+    }
+
+    /***
+     * Return the value of the int literal in [start, end), warning (and
+     * returning Integer.MAX_VALUE) if it is too large.
+     ***/
+    private int intValue(int start, int end) {
+        long val = 0;
+        for (int p = start; p < end; p++) {
+            val = 10 * val + (in.get(p) - '0');
+            if (val > Integer.MAX_VALUE) {
+                ErrMsg.warn(lineNum(start), charNum(start),
+                            "integer literal too large; using max value");
+                return Integer.MAX_VALUE;
+            }
+        }
+        return (int)val;
+    }
+
+    /***
+     * Scan the string literal whose opening quote is at start, returning
+     * its end, or -1 (after reporting and skipping it) if it is bad.  The
+     * four string rules of minim.jlex overlap, so this works out the
+     * longest match the way JLex would.
+     ***/
+    private int string(int start) {
+        int end = goodChars(start + 1);
+        if (end < limit && in.get(end) == '"') {
+            return end + 1;
+        }
+
+        if (end == limit || in.get(end) == '\n') {
+            ErrMsg.fatal(lineNum(start), charNum(start),
+                         "ignoring unterminated string literal");
+            skip(start, end);
+            return -1;
+        }
+
+        // end is at a backslash that does not start a good escape
+        if (end + 1 == limit || in.get(end + 1) == '\n') {
+            ErrMsg.fatal(lineNum(start), charNum(start),
+             "ignoring unterminated string literal with bad escaped character");
+            skip(start, end + 1);
+            return -1;
+        }
+
+        // either everything up to the next quote on the line ...
+        int quote = end + 2;
+        while (quote < limit && in.get(quote) != '"' &&
+               in.get(quote) != '\n') {
+            quote++;
+        }
+        // ... or good characters, then perhaps one more backslash
+        int rest = goodChars(end + 2);
+        if (rest < limit && in.get(rest) == '\\') {
+            rest++;
+        }
+
+        if (quote < limit && in.get(quote) == '"' && quote + 1 >= rest) {
+            ErrMsg.fatal(lineNum(start), charNum(start),
+                         "ignoring string literal with bad escaped character");
+            charNum += chars(start, quote + 1);
+            skip(start, quote + 1);
+        } else {
+            ErrMsg.fatal(lineNum(start), charNum(start),
+             "ignoring unterminated string literal with bad escaped character");
+            skip(start, rest);
+        }
+        return -1;
+    }
+
+    /***
+     * Return the end of the run of string characters (anything but a
+     * quote, backslash or newline) and good escapes starting at p.
+     ***/
+    private int goodChars(int p) {
+        while (p < limit) {
+            int b = in.get(p);
+            if (b == '"' || b == '\n') {
+                break;
+            }
+            if (b == '\\') {
+                if (p + 1 < limit && isEscaped(in.get(p + 1))) {
+                    p += 2;
+                    continue;
+                }
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isEscaped(int b) {
+        return b == 'n' || b == 't' || b == '\'' || b == '"' || b == '?' ||
+               b == '\\';
+    }
+
+    /***
+     * Report the character at pos as illegal and skip it.
+     ***/
+    private void illegalChar() {
+        int b = in.get(pos) & 0xff;
+        int len = 1;
+        if (b >= 0xf0) {
+            len = 4;
+        } else if (b >= 0xe0) {
+            len = 3;
+        } else if (b >= 0xc0) {
+            len = 2;
+        }
+        len = Math.min(len, limit - pos);
+        ErrMsg.fatal(lineNum(pos), charNum(pos),
+                     "ignoring illegal character: " + text(pos, pos + len));
+        charNum++;
+        skip(pos, pos + len);
+    }
+
+    // move past the lexeme in [start, end)
+    private void skip(int start, int end) {
+        pos = end;
+        countLines(start, end);
+    }
+
+    // count the ends of line in [start, end) as Yylex does
+    private void countLines(int start, int end) {
+        if (source != null) {
+            return;
+        }
+        for (int p = start; p < end; p++) {
+            int b = in.get(p);
+            if (b == '\n' && !lastWasCr) {
+                lineNum++;
+            }
+            if (b == '\r') {
+                lineNum++;
+                lastWasCr = true;
+            } else {
+                lastWasCr = false;
+            }
+        }
+    }
+
+    // the number of characters in the UTF-8 bytes [start, end)
+    private int chars(int start, int end) {
+        int n = 0;
+        for (int p = start; p < end; p++) {
+            if ((in.get(p) & 0xc0) != 0x80) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private String text(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = in.get(start + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// **********************************************************************
+//   DfaBuilder
+//   builds the transition and accept tables of TableScanner
+// **********************************************************************
+class DfaBuilder {
+    private static final int WIDTH = 128;
+
+    private int[] next = new int[64 * WIDTH];
+    private int[] accept = new int[64];
+    private int states = 0;
+    private int idState = -1;
+    private int[] keywordStates = new int[0];
+
+    public DfaBuilder() {
+        Arrays.fill(next, -1);
+        Arrays.fill(accept, -1);
+        newState();  // the start state
+    }
+
+    /***
+     * Accept text, which is made of the other characters than letters,
+     * digits and underscores, as code.
+     ***/
+    public void fixed(String text, int code) {
+        int state = path(text);
+        accept[state] = code;
+    }
+
+    /***
+     * Accept any run of the given characters as code.
+     ***/
+    public void loop(String chars, int code) {
+        int state = newState();
+        accept[state] = code;
+        for (int k = 0; k < chars.length(); k++) {
+            next[chars.charAt(k)] = state;
+            next[state * WIDTH + chars.charAt(k)] = state;
+        }
+    }
+
+    /***
+     * Accept the given keyword as code rather than as an identifier.
+     ***/
+    public void keyword(String text, int code) {
+        int state = 0;
+        for (int k = 0; k < text.length(); k++) {
+            state = step(state, text.charAt(k));
+            keywordStates = Arrays.copyOf(keywordStates,
+                                                    keywordStates.length + 1);
+            keywordStates[keywordStates.length - 1] = state;
+        }
+        accept[state] = code;
+    }
+
+    /***
+     * Accept a letter or underscore followed by letters, digits and
+     * underscores as code, unless it is a keyword; call after keyword().
+     ***/
+    public void identifiers(int code) {
+        idState = newState();
+        accept[idState] = code;
+        for (int c = 0; c < WIDTH; c++) {
+            if (isIdChar(c)) {
+                next[idState * WIDTH + c] = idState;
+                if (!Character.isDigit(c) && next[c] == -1) {
+                    next[c] = idState;
+                }
+            }
+        }
+        for (int state : keywordStates) {
+            if (accept[state] == -1) {
+                accept[state] = code;
+            }
+            for (int c = 0; c < WIDTH; c++) {
+                if (isIdChar(c) && next[state * WIDTH + c] == -1) {
+                    next[state * WIDTH + c] = idState;
+                }
+            }
+        }
+    }
+
+    public int[] next() {
+        return Arrays.copyOf(next, states * WIDTH);
+    }
+
+    public int[] accept() {
+        return Arrays.copyOf(accept, states);
+    }
+
+    private static boolean isIdChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // the state text leads to from the start state, adding states as needed
+    private int path(String text) {
+        int state = 0;
+        for (int k = 0; k < text.length(); k++) {
+            state = step(state, text.charAt(k));
+        }
+        return state;
+    }
+
+    private int step(int state, char c) {
+        if (next[state * WIDTH + c] == -1) {
+            int to = newState();  // may grow next
+            next[state * WIDTH + c] = to;
+        }
+        return next[state * WIDTH + c];
+    }
+
+    private int newState() {
+        if (states == accept.length) {
+            next = Arrays.copyOf(next, 2 * next.length);
+            Arrays.fill(next, states * WIDTH, next.length, -1);
+            accept = Arrays.copyOf(accept, 2 * accept.length);
+            Arrays.fill(accept, states, accept.length, -1);
+        }
+        return states++;
+    }
+}
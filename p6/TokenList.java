@@ -0,0 +1,50 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java_cup.runtime.*;
+
+/***
+ * The TokenList class holds every token a Scanner returns for one source
+ * file, scanned before parsing starts, so that scanning and parsing can
+ * be measured apart (see PhaseBench).  Unlike a
+ * TokenStream it works with any Scanner and keeps the Symbols as they
+ * are, values and all.
+ *
+ * As a Scanner it hands the tokens to the parser one at a time.  The
+ * parser marks the Symbols it is given and may ask for the EOF more than
+ * once, so each one is a copy.
+ ***/
+public class TokenList implements Scanner {
+    private ArrayList<Symbol> tokens = new ArrayList<Symbol>();
+    private int next = 0;  // the next token to hand to the parser
+
+    /***
+     * Scan the rest of the input of scanner, up to and including its EOF.
+     ***/
+    public static TokenList scan(Scanner scanner) throws IOException {
+        TokenList list = new TokenList();
+        Symbol tok;
+        do {
+            try {
+                tok = scanner.next_token();
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            list.tokens.add(tok);
+        } while (tok.sym != sym.EOF);
+        return list;
+    }
+
+    /***
+     * Return the number of tokens, not counting the EOF.
+     ***/
+    public int size() {
+        return tokens.size() - 1;
+    }
+
+    public Symbol next_token() {
+        Symbol s = tokens.get(Math.min(next++, tokens.size() - 1));
+        return new Symbol(s.sym, s.left, s.right, s.value);
+    }
+}
@@ -0,0 +1,142 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java_cup.runtime.*;
+
+/***
+ * The TokenStream class holds every token of one source file in parallel
+ * arrays: its code (from sym), its byte offset and length in the
+ * SourceText, and an int value (the name id of an ID, the value of an int
+ * literal).  That is 13 bytes a token, and the whole file is scanned in
+ * one tight loop by TableScanner.scan before parsing starts.
+ *
+ * As a Scanner it hands the tokens to the parser one at a time.  The
+ * Symbol of token i has i as its left and right position.  Only the
+ * tokens whose values the grammar uses (IDs, literals, true and false) get
+ * a TokenVal, made when the parser asks for the token; the rest have a
+ * null value.  Line and character numbers are worked out from the offsets
+ * when a diagnostic needs them (see lineNum and charNum).
+ ***/
+public class TokenStream implements Scanner {
+    private SourceText source;
+    private CompilationContext ctx;
+    private byte[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] values;
+    private int size = 0;
+    private int next = 0;  // the next token to hand to the parser
+
+    private TokenStream(SourceText source, CompilationContext ctx,
+                        int capacity) {
+        this.source = source;
+        this.ctx = ctx;
+        capacity = Math.max(capacity, 16);
+        kinds = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /***
+     * Scan all of the given text, reporting lexical errors as they are
+     * found.
+     ***/
+    public static TokenStream scan(SourceText source, CompilationContext ctx) {
+        TableScanner scanner = new TableScanner(source, ctx);
+        TokenStream tokens =
+            new TokenStream(source, ctx, source.bytes().remaining() / 4);
+        for (int kind = scanner.scan(); kind != sym.EOF;
+             kind = scanner.scan()) {
+            tokens.add(kind, scanner.tokenStart(), scanner.tokenLength(),
+                       scanner.tokenValue());
+        }
+        return tokens;
+    }
+
+    private void add(int kind, int start, int length, int value) {
+        if (size == kinds.length) {
+            int capacity = 2 * size;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = (byte)kind;
+        starts[size] = start;
+        lengths[size] = length;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int value(int i) {
+        return values[i];
+    }
+
+    /***
+     * Return the line and character numbers of token i.
+     ***/
+    public int lineNum(int i) {
+        return source.lineNum(starts[i]);
+    }
+
+    public int charNum(int i) {
+        return source.charNum(starts[i]);
+    }
+
+    /***
+     * Return the next token, and then EOF once they have all been
+     * returned.
+     ***/
+    public Symbol next_token() {
+        if (next == size) {
+            return new Symbol(sym.EOF);
+        }
+        int i = next++;
+        int kind = kinds[i];
+        Object value = null;
+        switch (kind) {
+        case sym.ID:
+            value = new IdTokenVal(source, starts[i], values[i],
+                                   ctx.names.name(values[i]));
+            break;
+        case sym.INTLITERAL:
+            value = new IntLitTokenVal(source, starts[i], values[i]);
+            break;
+        case sym.STRINGLITERAL:
+            value = new StrLitTokenVal(source, starts[i], text(i));
+            break;
+        case sym.TRUE:
+        case sym.FALSE:
+            value = new TokenVal(source, starts[i]);
+            break;
+        }
+        return new Symbol(kind, i, i, value);
+    }
+
+    // the text of token i
+    private String text(int i) {
+        ByteBuffer in = source.bytes();
+        byte[] bytes = new byte[lengths[i]];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = in.get(starts[i] + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
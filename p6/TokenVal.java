@@ -0,0 +1,92 @@
+// A TokenVal object contains the line number on which the token occurs as
+// well as the number of the character on that line that starts the token.
+// Some tokens (literals and IDs) also include the value of the token.
+//
+// A token scanned from a SourceText (see TableScanner) only records its
+// byte offset; its line and character numbers are worked out the first
+// time they are asked for.
+
+class TokenVal {
+  // fields
+    private int lineNum;          // 0 until known
+    private int charNum;          // the byte offset until lineNum is known
+    private SourceText source;    // null once lineNum is known
+  // constructors
+    TokenVal(int lineNum, int charNum) {
+        this.lineNum = lineNum;
+        this.charNum = charNum;
+    }
+
+    TokenVal(SourceText source, int offset) {
+        this.source = source;
+        this.charNum = offset;
+    }
+  // methods
+    int lineNum() {
+        if (source != null) {
+            locate();
+        }
+        return lineNum;
+    }
+
+    int charNum() {
+        if (source != null) {
+            locate();
+        }
+        return charNum;
+    }
+
+    private void locate() {
+        lineNum = source.lineNum(charNum);
+        charNum = source.charNum(charNum);
+        source = null;
+    }
+}
+
+class IntLitTokenVal extends TokenVal {
+  // new field: the value of the integer literal
+    int intVal;
+  // constructors
+    IntLitTokenVal(int lineNum, int charNum, int intVal) {
+        super(lineNum, charNum);
+        this.intVal = intVal;
+    }
+
+    IntLitTokenVal(SourceText source, int offset, int intVal) {
+        super(source, offset);
+        this.intVal = intVal;
+    }
+}
+
+class IdTokenVal extends TokenVal {
+  // new fields: the value of the identifier and its id in the NameTable
+    String idVal;
+    int id;
+  // constructors
+    IdTokenVal(int lineNum, int charNum, int id, String idVal) {
+        super(lineNum, charNum);
+        this.id = id;
+        this.idVal = idVal;
+    }
+
+    IdTokenVal(SourceText source, int offset, int id, String idVal) {
+        super(source, offset);
+        this.id = id;
+        this.idVal = idVal;
+    }
+}
+
+class StrLitTokenVal extends TokenVal {
+  // new field: the value of the string literal
+    String strVal;
+  // constructors
+    StrLitTokenVal(int lineNum, int charNum, String strVal) {
+        super(lineNum, charNum);
+        this.strVal = strVal;
+    }
+
+    StrLitTokenVal(SourceText source, int offset, String strVal) {
+        super(source, offset);
+        this.strVal = strVal;
+    }
+}
@@ -1,9 +1,26 @@
 /***
- * Type class and its subclasses: 
+ * Type class and its subclasses:
  * ErrorType, IntType, BoolType, VoidType, StringType, FnType, StructType,
+ *
+ * There is exactly one instance of each type that has no parts (the
+ * constants below), and one StructType per struct definition, owned by
+ * its StructDefSym.  Types are never allocated during type checking, and
+ * apart from struct types two types are equal exactly when they are the
+ * same object.
  ***/
 abstract public class Type {
 
+    /***
+     * the canonical instances
+     ***/
+    public static final Type ERROR = new ErrorType();
+    public static final Type INT = new IntType();
+    public static final Type BOOL = new BoolType();
+    public static final Type VOID = new VoidType();
+    public static final Type STRING = new StringType();
+    public static final Type FN = new FnType();
+    public static final Type STRUCT_DEF = new StructDefType();
+
     /***
      * default constructor
      ***/
@@ -17,38 +34,39 @@ abstract public class Type {
     abstract public boolean equals(Type t);
 
     /***
-     * default methods for "isXXXType"
+     * "isXXXType" methods; since the instances are canonical these are
+     * reference checks
      ***/
-    public boolean isErrorType() {
-        return false;
+    public final boolean isErrorType() {
+        return this == ERROR;
     }
 
-    public boolean isIntType() {
-        return false;
+    public final boolean isIntType() {
+        return this == INT;
     }
 
-    public boolean isBoolType() {
-        return false;
+    public final boolean isBoolType() {
+        return this == BOOL;
     }
 
-    public boolean isVoidType() {
-        return false;
+    public final boolean isVoidType() {
+        return this == VOID;
     }
-    
-    public boolean isStringType() {
-        return false;
+
+    public final boolean isStringType() {
+        return this == STRING;
     }
 
-    public boolean isFnType() {
-        return false;
+    public final boolean isFnType() {
+        return this == FN;
     }
 
-    public boolean isStructType() {
-        return false;
+    public final boolean isStructType() {
+        return this instanceof StructType;
     }
-    
-    public boolean isStructDefType() {
-        return false;
+
+    public final boolean isStructDefType() {
+        return this == STRUCT_DEF;
     }
 }
 
@@ -57,12 +75,8 @@ abstract public class Type {
 // **********************************************************************
 class ErrorType extends Type {
 
-    public boolean isErrorType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isErrorType();
+        return t == this;
     }
 
     public String toString() {
@@ -75,12 +89,8 @@ class ErrorType extends Type {
 // **********************************************************************
 class IntType extends Type {
 
-    public boolean isIntType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isIntType();
+        return t == this;
     }
 
     public String toString() {
@@ -93,12 +103,8 @@ class IntType extends Type {
 // **********************************************************************
 class BoolType extends Type {
 
-    public boolean isBoolType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isBoolType();
+        return t == this;
     }
 
     public String toString() {
@@ -111,12 +117,8 @@ class BoolType extends Type {
 // **********************************************************************
 class VoidType extends Type {
 
-    public boolean isVoidType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isVoidType();
+        return t == this;
     }
 
     public String toString() {
@@ -129,12 +131,8 @@ class VoidType extends Type {
 // **********************************************************************
 class StringType extends Type {
 
-    public boolean isStringType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isStringType();
+        return t == this;
     }
 
     public String toString() {
@@ -147,12 +145,8 @@ class StringType extends Type {
 // **********************************************************************
 class FnType extends Type {
 
-    public boolean isFnType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isFnType();
+        return t == this;
     }
 
     public String toString() {
@@ -165,15 +159,14 @@ class FnType extends Type {
 // **********************************************************************
 class StructType extends Type {
     private IdNode myId;
-    
+
     public StructType(IdNode id) {
         myId = id;
     }
-    
-    public boolean isStructType() {
-        return true;
-    }
 
+    // struct types compare equal whatever their definition, so that using
+    // two struct variables together is reported by the struct checks and
+    // not also as a type mismatch
     public boolean equals(Type t) {
         return t.isStructType();
     }
@@ -188,12 +181,8 @@ class StructType extends Type {
 // **********************************************************************
 class StructDefType extends Type {
 
-    public boolean isStructDefType() {
-        return true;
-    }
-
     public boolean equals(Type t) {
-        return t.isStructDefType();
+        return t == this;
     }
 
     public String toString() {
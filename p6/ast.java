@@ -1,5 +1,7 @@
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.RecursiveAction;
 
 // **********************************************************************
 // The ASTnode class defines the nodes of the abstract-syntax tree that
@@ -12,6 +14,8 @@ import java.util.*;
 // The nodes for literals and ids contain line and character number
 // information; for string literals and identifiers, they also contain a
 // string; for integer literals, they also contain an integer value.
+// Identifiers also carry the int id of their name, which is what the
+// symbol tables are keyed on.
 //
 // Here are all the different kinds of AST nodes and what kinds of children
 // they have.  All of these kinds of AST nodes are subclasses of "ASTnode".
@@ -63,6 +67,7 @@ import java.util.*;
 //       UnaryExpNode        ExpNode
 //         UnaryMinusNode
 //         NotNode
+//         ShiftLeftNode
 //       BinaryExpNode       ExpNode ExpNode
 //         PlusNode     
 //         MinusNode
@@ -95,7 +100,7 @@ import java.util.*;
 //        IfStmtNode,      IfElseStmtNode,  WhileStmtNode,  CallStmtNode
 //        ReturnStmtNode,  DotAccessNode,   AssignExpNode,  CallExpNode,
 //        UnaryExpNode,    BinaryExpNode,   UnaryMinusNode, NotNode,
-//        PlusNode,        MinusNode,       TimesNode,      DivideNode,
+//        ShiftLeftNode,   PlusNode,        MinusNode,       TimesNode,      DivideNode,
 //        AndNode,         OrNode,          EqualsNode,     NotEqualsNode,
 //        LessNode,        GreaterNode,     LessEqNode,     GreaterEqNode
 //
@@ -125,19 +130,62 @@ class ProgramNode extends ASTnode {
         myDeclList = L;
     }
 
+    /***
+     * nameAnalysis
+     * Runs name analysis with the given compilation bound to this thread.
+     ***/
+    public void nameAnalysis(CompilationContext ctx) {
+        CompilationContext prev = ctx.enter();
+        try {
+            nameAnalysis();
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
+
     /***
      * nameAnalysis
      * Creates an empty symbol table for the outermost scope, then processes
      * all of the globals, struct defintions, and functions in the program.
      ***/
     public void nameAnalysis() {
+        nameAnalysis(false);
+    }
+
+    /***
+     * analyze
+     * Runs name analysis and type checking together, in one walk of the
+     * program, with the given compilation bound to this thread.  Reports
+     * the same errors as nameAnalysis followed (if it found none) by
+     * typeCheck.
+     ***/
+    public void analyze(CompilationContext ctx) {
+        CompilationContext prev = ctx.enter();
+        try {
+            nameAnalysis(true);
+            ErrMsg.releaseHeld();
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
+
+    // name analysis, also type checking each function as it goes if check
+    private void nameAnalysis(boolean check) {
+        CompilationContext ctx = CompilationContext.current();
         SymTable symTab = new SymTable();
-        myDeclList.nameAnalysis(symTab);
+        if (ctx.cache != null) {
+            myDeclList.recordRefs();
+        }
+        Sym.setLocalOffset(Sym.GLOBAL);  // the outermost decls are globals
+        myDeclList.nameAnalysis(symTab, symTab, check);
 
         //check for main func
         Sym mainFunc = null;
+        int mainId = CompilationContext.current().names.lookup("main");
         try {
-             mainFunc = symTab.lookupLocal("main");
+             if (mainId >= 0) {
+                 mainFunc = symTab.lookupLocal(mainId);
+             }
         }catch(EmptySymTableException e){
             System.out.println(e);
         }
@@ -145,25 +193,68 @@ class ProgramNode extends ASTnode {
             ErrMsg.fatal(0,0,"There is no function named main");
         }
 
-
-
+        if (ctx.cache != null && !ctx.hasErrors()) {
+            ctx.ir = new Ir();  // for the cached code to be read into
+            myDeclList.useCache(ctx.cache);
+        }
     }
     
+    /***
+     * typeCheck
+     * Runs type checking with the given compilation bound to this thread.
+     ***/
+    public void typeCheck(CompilationContext ctx) {
+        CompilationContext prev = ctx.enter();
+        try {
+            typeCheck();
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
+
     /***
      * typeCheck
      ***/
     public void typeCheck() {
         myDeclList.typeCheck();
     }
+
+    /***
+     * fold
+     * Folds the constants in the (type-correct) program, with the given
+     * compilation bound to this thread.
+     ***/
+    public void fold(CompilationContext ctx) {
+        CompilationContext prev = ctx.enter();
+        try {
+            myDeclList.fold();
+        } finally {
+            CompilationContext.leave(prev);
+        }
+    }
     
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
     }
 
-    public void codeGen(PrintWriter p){
-        Codegen.p = p;
-        Codegen.stringMap = new HashMap<>();
-        myDeclList.codeGen();
+    /***
+     * codeGen
+     * Generates code for the program and writes it to out, using the given
+     * compilation for labels and string literals.
+     ***/
+    public void codeGen(CompilationContext ctx, WritableByteChannel out)
+        throws IOException {
+        CompilationContext prev = ctx.enter();
+        try {
+            if (ctx.ir == null) {
+                ctx.ir = new Ir();
+            }
+            myDeclList.codeGen();  // and optimizes each function
+            ctx.ir.link();
+            new MipsEmitter(out).emit(ctx.ir);
+        } finally {
+            CompilationContext.leave(prev);
+        }
     }
 
     // one kid
@@ -172,7 +263,7 @@ class ProgramNode extends ASTnode {
 
 class DeclListNode extends ASTnode {
     public DeclListNode(List<DeclNode> S) {
-        myDecls = S;
+        myDecls = S.toArray(new DeclNode[S.size()]);
     }
 
     /***
@@ -190,55 +281,254 @@ class DeclListNode extends ASTnode {
      * decls in the list.
      ***/    
     public void nameAnalysis(SymTable symTab, SymTable globalTab) {
+        nameAnalysis(symTab, globalTab, false);
+    }
+
+    /***
+     * nameAnalysis
+     * As above, but if check is true also type check the body of each
+     * function right after its names (see ProgramNode.analyze).
+     ***/
+    public void nameAnalysis(SymTable symTab, SymTable globalTab,
+                             boolean check) {
         int currentOffset = Sym.getLocalOffset();
-        for (DeclNode node : myDecls) {
+        for (int i = 0; i < myDecls.length; i++) {
+            DeclNode node = myDecls[i];
+            if (myRefs != null) {
+                symTab.recordRefs(myRefs[i] = new BitSet());
+            }
             if (node instanceof VarDeclNode) {
                 ((VarDeclNode)node).nameAnalysis(symTab, globalTab);
-                ((VarDeclNode)node).getSym().setGlobalOffset(currentOffset);
+                Sym sym = ((VarDeclNode)node).getSym();
+                if (currentOffset == Sym.GLOBAL) {
+                    if (sym != null) {
+                        sym.setGlobalOffset(Sym.GLOBAL);
+                    }
+                } else {
+                    // a local takes the words from currentOffset down, and
+                    // a struct's fields go up from the lowest of them
+                    int size = sym == null ? 4 : sym.getSize();
+                    if (sym != null) {
+                        sym.setGlobalOffset(currentOffset - size + 4);
+                    }
+                    currentOffset -= size;  // the next local goes below it
+                }
+            } else if (check && node instanceof FnDeclNode) {
+                ((FnDeclNode)node).analyze(symTab);
             } else {
                 node.nameAnalysis(symTab);
             }
         }
+        if (myRefs != null) {
+            symTab.recordRefs(null);
+        }
         Sym.setLocalOffset(currentOffset);
     }    
+
+    /***
+     * recordRefs
+     * Have the next name analysis record, for each decl in the list, the
+     * names it uses that are declared in the outermost scope (see
+     * useCache).
+     ***/
+    public void recordRefs() {
+        myRefs = new BitSet[myDecls.length];
+    }
+
+    /***
+     * layoutFields
+     * Give each field declared in the list (the decls of a struct) its
+     * offset from the start of the struct, in order, and return the size
+     * of the struct.
+     ***/
+    public int layoutFields() {
+        int size = 0;
+        for (DeclNode node : myDecls) {
+            Sym sym = ((VarDeclNode)node).getSym();
+            if (sym != null) {
+                sym.setGlobalOffset(size);
+                size += sym.getSize();
+            }
+        }
+        return size;
+    }
+
+    /***
+     * useCache
+     * After a name analysis with recordRefs and without errors, look up
+     * the code of each function in cache (see FnDeclNode.useCache) under a
+     * key made of everything that code depends on: the switches that
+     * change code generation, the text of the function after name
+     * analysis, and the signature of each global name it uses.  The
+     * signature of a function is its header; that of a variable or struct
+     * is its text together with the signatures of the names it uses.
+     ***/
+    public void useCache(CodeCache cache) {
+        Options options = CompilationContext.current().options;
+        IntMap<Integer> index = new IntMap<Integer>();
+        for (int i = 0; i < myDecls.length; i++) {
+            index.put(myDecls[i].nameId(), i);
+        }
+        String[] sigs = new String[myDecls.length];
+        for (int i = 0; i < myDecls.length; i++) {
+            if (myDecls[i] instanceof FnDeclNode) {
+                String text = CodeCache.VERSION + " " + options.regAlloc +
+                              " " + options.fold + " " + options.peephole +
+                              "\n" +
+                              unparsed(myDecls[i]) + uses(i, index, sigs);
+                ((FnDeclNode)myDecls[i]).useCache(cache,
+                                                  CodeCache.key(text));
+            }
+        }
+    }
+
+    // the signature of decl i (see useCache), worked out once
+    private String signature(int i, IntMap<Integer> index, String[] sigs) {
+        if (sigs[i] == null) {
+            if (myDecls[i] instanceof FnDeclNode) {
+                sigs[i] = ((FnDeclNode)myDecls[i]).header();
+            } else {
+                sigs[i] = unparsed(myDecls[i]) + uses(i, index, sigs);
+            }
+        }
+        return sigs[i];
+    }
+
+    // the names decl i uses with their signatures, in order of name
+    private String uses(int i, IntMap<Integer> index, String[] sigs) {
+        NameTable names = CompilationContext.current().names;
+        TreeMap<String,String> uses = new TreeMap<String,String>();
+        BitSet refs = myRefs[i];
+        for (int name = refs.nextSetBit(0); name >= 0;
+             name = refs.nextSetBit(name + 1)) {
+            uses.put(names.name(name),
+                     signature(index.get(name), index, sigs));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,String> use : uses.entrySet()) {
+            sb.append(use.getKey()).append(": ").append(use.getValue())
+              .append('\n');
+        }
+        return sb.toString();
+    }
+
+    // node as unparse writes it (a StringWriter appends each piece a char
+    // at a time)
+    private static String unparsed(ASTnode node) {
+        CharArrayWriter text = new CharArrayWriter(1024);
+        PrintWriter p = new PrintWriter(text);
+        node.unparse(p, 0);
+        p.flush();
+        return text.toString();
+    }
     
     /***
      * typeCheck
      ***/
     public void typeCheck() {
-        for (DeclNode node : myDecls) {
-            node.typeCheck();
+        for (int i = 0; i < myDecls.length; i++) {
+            myDecls[i].typeCheck();
+        }
+    }
+
+    /***
+     * fold
+     ***/
+    public void fold() {
+        for (int i = 0; i < myDecls.length; i++) {
+            myDecls[i].fold();
         }
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator it = myDecls.iterator();
-        try {
-            while (it.hasNext()) {
-                ((DeclNode)it.next()).unparse(p, indent);
-            }
-        } catch (NoSuchElementException ex) {
-            System.err.println("unexpected NoSuchElementException in DeclListNode.print");
-            System.exit(-1);
+        for (int i = 0; i < myDecls.length; i++) {
+            myDecls[i].unparse(p, indent);
         }
     }
 
+    /***
+     * codeGen
+     * With -pcodegen, the functions are generated in parallel first, each
+     * with a context of its own (see CompilationContext.forFunction), and
+     * then added in order with the rest; Ir.link numbers their labels as
+     * if they had been generated one after the other.
+     ***/
     public void codeGen(){
-        for(DeclNode node : myDecls){
-            if(node instanceof VarDeclNode || node instanceof FnDeclNode){
+        CompilationContext ctx = CompilationContext.current();
+        if(!ctx.options.parallelCodegen){
+            for(int i = 0; i < myDecls.length; i++){
+                DeclNode node = myDecls[i];
+                if(node instanceof VarDeclNode || node instanceof FnDeclNode){
+                    node.codeGen();
+                }
+            }
+            return;
+        }
+
+        IrFunction[] units = new IrFunction[myDecls.length];
+        new CodeGenTask(ctx, units, 0, myDecls.length).invoke();
+        for(int i = 0; i < myDecls.length; i++){
+            DeclNode node = myDecls[i];
+            if(node instanceof VarDeclNode){
                 node.codeGen();
+            } else if(node instanceof FnDeclNode){
+                Codegen.addFunction(units[i]);
+            }
+        }
+    }
+
+    /***
+     * CodeGenTask
+     * Generates each function in [lo, hi) of the list into units,
+     * splitting the range in half until there is a single decl left.
+     ***/
+    private class CodeGenTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private CompilationContext ctx;
+        private IrFunction[] units;
+        private int lo;
+        private int hi;
+
+        CodeGenTask(CompilationContext ctx, IrFunction[] units, int lo,
+                    int hi) {
+            this.ctx = ctx;
+            this.units = units;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CodeGenTask(ctx, units, lo, mid),
+                          new CodeGenTask(ctx, units, mid, hi));
+                return;
+            }
+            if (lo < hi && myDecls[lo] instanceof FnDeclNode) {
+                CompilationContext task = ctx.forFunction();
+                CompilationContext prev = task.enter();
+                try {
+                    myDecls[lo].codeGen();
+                } finally {
+                    CompilationContext.leave(prev);
+                }
+                units[lo] = task.ir.units().get(0);
             }
         }
     }
 
 
-    // list of kids (DeclNodes)
-    private List<DeclNode> myDecls;
+    // list of kids (DeclNodes), fixed once parsed
+    private DeclNode[] myDecls;
+
+    // the global names each decl uses (see recordRefs), or null
+    private BitSet[] myRefs;
 }
 
 class FormalsListNode extends ASTnode {
     public FormalsListNode(List<FormalDeclNode> S) {
-        myFormals = S;
+        myFormals = S.toArray(new FormalDeclNode[S.size()]);
     }
 
     /***
@@ -249,10 +539,10 @@ class FormalsListNode extends ASTnode {
      *     if there was no error, add type of formal decl to list
      ***/
     public List<Type> nameAnalysis(SymTable symTab) {
-        List<Type> typeList = new LinkedList<Type>();
+        List<Type> typeList = new ArrayList<Type>(myFormals.length);
         int currentOffset = 4;
-        for (FormalDeclNode node : myFormals) {
-            Sym sym = node.nameAnalysis(symTab);
+        for (int i = 0; i < myFormals.length; i++) {
+            Sym sym = myFormals[i].nameAnalysis(symTab);
             if (sym != null) {
                 typeList.add(sym.getType());
                 sym.setGlobalOffset(currentOffset);
@@ -267,25 +557,23 @@ class FormalsListNode extends ASTnode {
      * Return the number of formals in this list.
      ***/
     public int length() {
-        return myFormals.size();
+        return myFormals.length;
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<FormalDeclNode> it = myFormals.iterator();
-        if (it.hasNext()) { // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int i = 0; i < myFormals.length; i++) {
+            if (i > 0) {
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
-        } 
+            myFormals[i].unparse(p, indent);
+        }
     }
     public int getParamsSize(){
         return paramsSize;
     }
 
-    // list of kids (FormalDeclNodes)
-    private List<FormalDeclNode> myFormals;
+    // list of kids (FormalDeclNodes), fixed once parsed
+    private FormalDeclNode[] myFormals;
     private int paramsSize;
 }
 
@@ -302,9 +590,18 @@ class FnBodyNode extends ASTnode {
      * - process the statement list
      ***/
     public void nameAnalysis(SymTable symTab) {
+        nameAnalysis(symTab, null);
+    }
+
+    /***
+     * nameAnalysis
+     * As above, but unless retType is null also type check each statement
+     * right after its names (see StmtNode.analyze).
+     ***/
+    public void nameAnalysis(SymTable symTab, Type retType) {
         Sym.setLocalOffset(-8);
         myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myStmtList.nameAnalysis(symTab, retType);
         int currentOffset = Sym.getLocalOffset();
         this.localsSize = (currentOffset+8)*(-1);
     }    
@@ -315,12 +612,19 @@ class FnBodyNode extends ASTnode {
     public void typeCheck(Type retType) {
         myStmtList.typeCheck(retType);
     }    
+
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myStmtList.fold();
+    }
           
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
         myStmtList.unparse(p, indent);
     }
-    public void codeGen(String funcEndLabel){
+    public void codeGen(int funcEndLabel){
         myStmtList.codeGen(funcEndLabel);
     }
     public int getLocalsSize(){
@@ -335,7 +639,7 @@ class FnBodyNode extends ASTnode {
 
 class StmtListNode extends ASTnode {
     public StmtListNode(List<StmtNode> S) {
-        myStmts = S;
+        myStmts = S.toArray(new StmtNode[S.size()]);
     }
 
     /***
@@ -343,45 +647,66 @@ class StmtListNode extends ASTnode {
      * Given a symbol table symTab, process each statement in the list.
      ***/
     public void nameAnalysis(SymTable symTab) {
-        for (StmtNode node : myStmts) {
-            node.nameAnalysis(symTab);
+        for (int i = 0; i < myStmts.length; i++) {
+            myStmts[i].nameAnalysis(symTab);
         }
     }    
+
+    /***
+     * nameAnalysis
+     * As above, but unless retType is null also type check each statement
+     * right after its names (see StmtNode.analyze).
+     ***/
+    public void nameAnalysis(SymTable symTab, Type retType) {
+        if (retType == null) {
+            nameAnalysis(symTab);
+            return;
+        }
+        for (int i = 0; i < myStmts.length; i++) {
+            myStmts[i].analyze(symTab, retType);
+        }
+    }
     
     /***
      * typeCheck
      ***/
     public void typeCheck(Type retType) {
-        for(StmtNode node : myStmts) {
-            node.typeCheck(retType);
+        for (int i = 0; i < myStmts.length; i++) {
+            myStmts[i].typeCheck(retType);
+        }
+    }
+
+    /***
+     * fold
+     ***/
+    public void fold() {
+        for (int i = 0; i < myStmts.length; i++) {
+            myStmts[i].fold();
         }
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<StmtNode> it = myStmts.iterator();
-        while (it.hasNext()) {
-            it.next().unparse(p, indent);
+        for (int i = 0; i < myStmts.length; i++) {
+            myStmts[i].unparse(p, indent);
         }
     }
-    public void codeGen(String funcEndLabel){
-      for(StmtNode node : myStmts){
-        node.codeGen(funcEndLabel);//TODO fix this
+    public void codeGen(int funcEndLabel){
+      for(int i = 0; i < myStmts.length; i++){
+        myStmts[i].codeGen(funcEndLabel);//TODO fix this
       }
     }
 
-    // list of kids (StmtNodes)
-    private List<StmtNode> myStmts;
+    // list of kids (StmtNodes), fixed once parsed
+    private StmtNode[] myStmts;
 }
 
 class ExpListNode extends ASTnode {
     public ExpListNode(List<ExpNode> S) {
-        myExps = S;
-        myExpsReversed = new LinkedList<ExpNode>(S);
-        Collections.reverse(myExpsReversed);
+        myExps = S.toArray(new ExpNode[S.size()]);
     }
     
     public int size() {
-        return myExps.size();
+        return myExps.length;
     }
     
     /***
@@ -389,8 +714,8 @@ class ExpListNode extends ASTnode {
      * Given a symbol table symTab, process each exp in the list.
      ***/
     public void nameAnalysis(SymTable symTab) {
-        for (ExpNode node : myExps) {
-            node.nameAnalysis(symTab);
+        for (int i = 0; i < myExps.length; i++) {
+            myExps[i].nameAnalysis(symTab);
         }
     }
     
@@ -417,28 +742,35 @@ class ExpListNode extends ASTnode {
             System.exit(-1);
         }
     }
+
+    /***
+     * fold
+     * Replace each exp in the list by its folded version.
+     ***/
+    public void fold() {
+        for (int i = 0; i < myExps.length; i++) {
+            myExps[i] = myExps[i].fold();
+        }
+    }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<ExpNode> it = myExps.iterator();
-        if (it.hasNext()) { // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int i = 0; i < myExps.length; i++) {
+            if (i > 0) {
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
-        } 
+            myExps[i].unparse(p, indent);
+        }
     }
     public void codeGen(){
-
-      for(ExpNode node : myExpsReversed){
-        node.codeGenCommon();
+      // push the args last to first
+      for(int i = myExps.length - 1; i >= 0; i--){
+        myExps[i].codeGenCommon();
         Codegen.genPush(Codegen.T0);
       }
     }
 
-    // list of kids (ExpNodes)
-    private List<ExpNode> myExps;
-    private List<ExpNode> myExpsReversed;
+    // list of kids (ExpNodes), fixed once parsed (fold only replaces them)
+    private ExpNode[] myExps;
 }
 
 // **********************************************************************
@@ -451,8 +783,16 @@ abstract class DeclNode extends ASTnode {
      ***/
     abstract public Sym nameAnalysis(SymTable symTab);
 
+    /***
+     * Return the id of the declared name.
+     ***/
+    abstract public int nameId();
+
     // default version of typeCheck for non-function decls
     public void typeCheck() { }
+
+    // default version of fold for non-function decls
+    public void fold() { }
   public void codeGen(){}
 }
 
@@ -484,7 +824,7 @@ class VarDeclNode extends DeclNode {
     
     public Sym nameAnalysis(SymTable symTab, SymTable globalTab) {
         boolean badDecl = false;
-        String name = myId.name();
+        int name = myId.nameId();
         Sym sym = null;
         IdNode structId = null;
 
@@ -497,7 +837,7 @@ class VarDeclNode extends DeclNode {
         else if (myType instanceof StructNode) {
             structId = ((StructNode)myType).idNode();
 			try {
-				sym = globalTab.lookupGlobal(structId.name());
+				sym = globalTab.lookupGlobal(structId.nameId());
             
 				// if the name for the struct type is not found, 
 				// or is not a struct type
@@ -552,6 +892,10 @@ class VarDeclNode extends DeclNode {
         return sym;
     }    
     
+    public int nameId() {
+        return myId.nameId();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -563,8 +907,9 @@ class VarDeclNode extends DeclNode {
       return myId.sym();
     }
     public void codeGen(){
-      if(this.myId.sym().getGlobalOffset() == 1){
-        Codegen.p.print(Codegen.addGlobalVar(this.myId.name()));
+      if(this.myId.sym().getGlobalOffset() == Sym.GLOBAL){
+        Codegen.print(Codegen.addGlobalVar(this.myId.name(),
+                                           this.myId.sym().getSize()));
       }
     }
 
@@ -601,7 +946,22 @@ class FnDeclNode extends DeclNode {
      *     exit scope
      ***/
     public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        return nameAnalysis(symTab, null);
+    }
+
+    /***
+     * analyze
+     * Name analysis as above, type checking each statement of the body
+     * right after its names.
+     ***/
+    public Sym analyze(SymTable symTab) {
+        return nameAnalysis(symTab, myType.type());
+    }
+
+    // name analysis, also type checking the body against retType unless
+    // it is null
+    private Sym nameAnalysis(SymTable symTab, Type retType) {
+        int name = myId.nameId();
         FnSym sym = null;
         try {
 			if (symTab.lookupLocal(name) != null) {
@@ -639,7 +999,7 @@ class FnDeclNode extends DeclNode {
             sym.addFormals(typeList);
         }
         
-        myBody.nameAnalysis(symTab); // process the function body
+        myBody.nameAnalysis(symTab, retType); // process the function body
         sym.setLocalsSize(myBody.getLocalsSize());
         try {
             symTab.removeScope();  // exit scope
@@ -656,9 +1016,53 @@ class FnDeclNode extends DeclNode {
      * typeCheck
      ***/
     public void typeCheck() {
-        myBody.typeCheck(myType.type());
+        if (myCode == null) {
+            myBody.typeCheck(myType.type());
+        }
+    }
+
+    /***
+     * fold
+     ***/
+    public void fold() {
+        if (myCode == null) {
+            myBody.fold();
+        }
+    }
+
+    /***
+     * useCache
+     * Look up the code of this function in cache under key (see
+     * DeclListNode.useCache).  If it is there, this function is not type
+     * checked, folded or generated again; if not, its code is stored there
+     * once it has been generated.
+     ***/
+    public void useCache(CodeCache cache, String key) {
+        myCacheKey = key;
+        myCode = cache.load(key, CompilationContext.current().ir.pool());
+    }
+
+    /***
+     * Return the header of this function: its return type, name and
+     * formals, as unparse writes them.
+     ***/
+    public String header() {
+        CharArrayWriter text = new CharArrayWriter();
+        PrintWriter p = new PrintWriter(text);
+        myType.unparse(p, 0);
+        p.print(" ");
+        p.print(myId.name());
+        p.print("(");
+        myFormalsList.unparse(p, 0);
+        p.print(")");
+        p.flush();
+        return text.toString();
     }
         
+    public int nameId() {
+        return myId.nameId();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -671,25 +1075,34 @@ class FnDeclNode extends DeclNode {
         p.println("}\n");
     }
     public void codeGen(){
+      if(myCode != null){
+        Codegen.addFunction(myCode);
+        return;
+      }
       String funcName = this.myId.name();
-      String funcEndLabel = Codegen.nextLabel();
+      Codegen.beginFunction(funcName);
+      int funcEndLabel = Codegen.nextLabel();
       if(funcName.equals("main")){
-        Codegen.p.print("\t.text\n\t.globl main\nmain:\t# FUNCTION ENTRY\n");
+        Codegen.print("\t.text\n\t.globl main\nmain:\t# FUNCTION ENTRY\n");
       } else {
-        Codegen.p.print("\t.text\n_"+funcName+":\t#FUNCTION ENTRY\n");
+        Codegen.print("\t.text\n_"+funcName+":\t#FUNCTION ENTRY\n");
       }
       Codegen.genPush(Codegen.RA);
       Codegen.genPush(Codegen.FP);
       Codegen.generate("addu",Codegen.FP,Codegen.SP,8);
-      Codegen.generate("subu",Codegen.SP,Codegen.FP,((FnSym)this.myId.sym()).getLocalsSize());
+      Codegen.generate("subu",Codegen.SP,Codegen.SP,((FnSym)this.myId.sym()).getLocalsSize());
       this.myBody.codeGen(funcEndLabel);
       Codegen.genLabel(funcEndLabel);
-      Codegen.p.print("\t\t#FUNCTION EXIT\n");
+      Codegen.print("\t\t#FUNCTION EXIT\n");
       Codegen.generateIndexed("lw",Codegen.RA,Codegen.FP,0);
       Codegen.generate("move",Codegen.T0,Codegen.FP);
       Codegen.generateIndexed("lw",Codegen.FP,Codegen.FP,-4);
       Codegen.generate("move",Codegen.SP,Codegen.T0);
       Codegen.generate("jr",Codegen.RA);
+      Codegen.endFunction();
+      if(myCacheKey != null){
+        Codegen.cacheFunction(myCacheKey);
+      }
     }
 
     // 4 kids
@@ -697,6 +1110,10 @@ class FnDeclNode extends DeclNode {
     private IdNode myId;
     private FormalsListNode myFormalsList;
     private FnBodyNode myBody;
+
+    // the key of this function in the CodeCache, and the code found there
+    private String myCacheKey;
+    private IrFunction myCode;
 }
 
 class FormalDeclNode extends DeclNode {
@@ -714,7 +1131,7 @@ class FormalDeclNode extends DeclNode {
      * else add a new entry to the symbol table and return that Sym
      ***/
     public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        int name = myId.nameId();
         boolean badDecl = false;
         Sym sym = null;
         
@@ -755,6 +1172,10 @@ class FormalDeclNode extends DeclNode {
         return sym;
     } 		
     
+    public int nameId() {
+        return myId.nameId();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         myType.unparse(p, 0);
         p.print(" ");
@@ -783,7 +1204,7 @@ class StructDeclNode extends DeclNode {
      *     add a new entry to symbol table for this struct
      ***/
     public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        int name = myId.nameId();
         boolean badDecl = false;
         try {
 			if (symTab.lookupLocal(name) != null) {
@@ -804,7 +1225,8 @@ class StructDeclNode extends DeclNode {
         
         if (!badDecl) {
             try {   // add entry to symbol table
-                StructDefSym sym = new StructDefSym(structSymTab);
+                StructDefSym sym = new StructDefSym(structSymTab, myId);
+                sym.setSize(myDeclList.layoutFields());
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
@@ -821,6 +1243,10 @@ class StructDeclNode extends DeclNode {
         return null;
     }    
     
+    public int nameId() {
+        return myId.nameId();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("struct ");
@@ -854,7 +1280,7 @@ class IntNode extends TypeNode {
      * type
      ***/
     public Type type() {
-        return new IntType();
+        return Type.INT;
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -870,7 +1296,7 @@ class BoolNode extends TypeNode {
      * type
      ***/
     public Type type() {
-        return new BoolType();
+        return Type.BOOL;
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -886,7 +1312,7 @@ class VoidNode extends TypeNode {
      * type
      ***/
     public Type type() {
-        return new VoidType();
+        return Type.VOID;
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -907,7 +1333,11 @@ class StructNode extends TypeNode {
      * type
      ***/
     public Type type() {
-        return new StructType(myId);
+        Sym sym = myId.sym();
+        if (sym instanceof StructDefSym) {
+            return ((StructDefSym)sym).getStructType();
+        }
+        return Type.ERROR;  // struct name not (yet) resolved
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -926,7 +1356,24 @@ class StructNode extends TypeNode {
 abstract class StmtNode extends ASTnode {
     abstract public void nameAnalysis(SymTable symTab);
     abstract public void typeCheck(Type retType);
-    abstract public void codeGen(String funcExitLabel);
+
+    /***
+     * analyze
+     * Name analysis followed by type checking in a function returning
+     * retType, unless a name error has been reported by now, in which case
+     * typeCheck would not run at all (see ErrMsg.hold).  Statements that
+     * contain statements check each one right after its own names.
+     ***/
+    public void analyze(SymTable symTab, Type retType) {
+        nameAnalysis(symTab);
+        if (ErrMsg.hold()) {
+            typeCheck(retType);
+            ErrMsg.endHold();
+        }
+    }
+
+    abstract public void fold();
+    abstract public void codeGen(int funcExitLabel);
 
 }
 
@@ -950,13 +1397,20 @@ class AssignStmtNode extends StmtNode {
         myAssign.typeCheck();
     }
         
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myAssign.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myAssign.unparse(p, -1); // no parentheses
         p.println(";");
     }
-    public void codeGen(String fnExitLabel){
-      myAssign.codeGenExp();
+    public void codeGen(int fnExitLabel){
+      myAssign.codeGenCommon();
     }
 
     // one kid
@@ -988,16 +1442,17 @@ class PostIncStmtNode extends StmtNode {
         }
     }
         
+    // the operand is a location, so there is nothing to fold
+    public void fold() { }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
         p.println("++;");
     }
-  public void codeGen(String funcExitLabel){
-    assert (myExp instanceof IdNode);
-    IdNode node = (IdNode) myExp;
-    node.codeGenLoc();
-    node.codeGenExp();
+  public void codeGen(int funcExitLabel){
+    myExp.codeGenLoc();
+    myExp.codeGenExp();
     Codegen.genPop(Codegen.T0);
     Codegen.genPop(Codegen.T1);
     Codegen.generate("add",Codegen.T0,Codegen.T0,1);
@@ -1033,16 +1488,17 @@ class PostDecStmtNode extends StmtNode {
         }
     }
         
+    // the operand is a location, so there is nothing to fold
+    public void fold() { }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
         p.println("--;");
     }
-  public void codeGen(String funcExitLabel){
-    assert (myExp instanceof IdNode);
-    IdNode node = (IdNode) myExp;
-    node.codeGenLoc();
-    node.codeGenExp();
+  public void codeGen(int funcExitLabel){
+    myExp.codeGenLoc();
+    myExp.codeGenExp();
     Codegen.genPop(Codegen.T0);
     Codegen.genPop(Codegen.T1);
     Codegen.generate("sub",Codegen.T0,Codegen.T0,1);
@@ -1087,20 +1543,21 @@ class ReadStmtNode extends StmtNode {
                          "Read attempt of struct variable");
         }
     }
-    public void codeGen(String funcExitLabel){
-      assert (myExp instanceof IdNode);
+    public void codeGen(int funcExitLabel){
       Codegen.generate("li",Codegen.V0,5);
       Codegen.generate("syscall");
-      IdNode node = (IdNode) myExp;
-      node.codeGenLoc();
+      myExp.codeGenLoc();
       Codegen.genPop(Codegen.T0);
-      if(node.sym().getType().isBoolType()){
+      if(myExp.type().isBoolType()){
         Codegen.generateIndexed("sne",Codegen.T1,Codegen.V0,0);
       } else{
         Codegen.generateIndexed("sw",Codegen.V0,Codegen.T0,0);
       }
     }
     
+    // the operand is a location, so there is nothing to fold
+    public void fold() { }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("input >> ");
@@ -1152,15 +1609,22 @@ class WriteStmtNode extends StmtNode {
         }
     }
         
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myExp = myExp.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("disp << ");
         myExp.unparse(p, 0);
         p.println(";");
     }
-    public void codeGen(String funcExitLabel){
+    public void codeGen(int funcExitLabel){
       myExp.codeGenExp();
-      Type expType = myExp.typeCheck();
+      Type expType = myExp.type();
       Codegen.genPop(Codegen.T0);
       Codegen.generate("move",Codegen.A0,Codegen.T0);
       int sysCallCode = 1;
@@ -1193,10 +1657,23 @@ class IfStmtNode extends StmtNode {
      * - exit the scope
      ***/
     public void nameAnalysis(SymTable symTab) {
+        analyze(symTab, null);
+    }
+
+    /***
+     * analyze
+     * As nameAnalysis, but unless retType is null type check the condition
+     * and each statement right after its names.
+     ***/
+    public void analyze(SymTable symTab, Type retType) {
         myExp.nameAnalysis(symTab);
+        if (retType != null && ErrMsg.hold()) {
+            checkCondition();
+            ErrMsg.endHold();
+        }
         symTab.addScope();
         myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myStmtList.nameAnalysis(symTab, retType);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1210,16 +1687,27 @@ class IfStmtNode extends StmtNode {
      * typeCheck
      ***/
     public void typeCheck(Type retType) {
+        checkCondition();
+        myStmtList.typeCheck(retType);
+    }
+
+    private void checkCondition() {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBoolType()) {
             ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
                          "Non-bool expression in condition of if");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
        
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myExp = myExp.fold();
+        myStmtList.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("if (");
@@ -1231,9 +1719,9 @@ class IfStmtNode extends StmtNode {
         p.println("}");
     }
 
-    public void codeGen(String funcExitLabel){
-      String trueLabel = Codegen.nextLabel();
-      String doneLabel = Codegen.nextLabel();
+    public void codeGen(int funcExitLabel){
+      int trueLabel = Codegen.nextLabel();
+      int doneLabel = Codegen.nextLabel();
       myExp.codeGenJump(trueLabel,doneLabel);
       Codegen.genLabel(trueLabel);
       myStmtList.codeGen(funcExitLabel);
@@ -1269,11 +1757,24 @@ class IfElseStmtNode extends StmtNode {
      * - exit the scope
      ***/
     public void nameAnalysis(SymTable symTab) {
+        analyze(symTab, null);
+    }
+
+    /***
+     * analyze
+     * As nameAnalysis, but unless retType is null type check the condition
+     * and each statement right after its names.
+     ***/
+    public void analyze(SymTable symTab, Type retType) {
         myExp.nameAnalysis(symTab);
+        if (retType != null && ErrMsg.hold()) {
+            checkCondition();
+            ErrMsg.endHold();
+        }
         symTab.addScope();
         int entryOffset = Sym.getLocalOffset();
         myThenDeclList.nameAnalysis(symTab);
-        myThenStmtList.nameAnalysis(symTab);
+        myThenStmtList.nameAnalysis(symTab, retType);
         int exitOffset1 = Sym.getLocalOffset();
         try {
             symTab.removeScope();
@@ -1285,7 +1786,7 @@ class IfElseStmtNode extends StmtNode {
         symTab.addScope();
         Sym.setLocalOffset(entryOffset);
         myElseDeclList.nameAnalysis(symTab);
-        myElseStmtList.nameAnalysis(symTab);
+        myElseStmtList.nameAnalysis(symTab, retType);
         int exitOffset2 = Sym.getLocalOffset();
         int exitOffset = exitOffset1< exitOffset2 ? exitOffset1:exitOffset2;//TODO no clue what this does but possibly expand?
         Sym.setLocalOffset(exitOffset);
@@ -1303,17 +1804,29 @@ class IfElseStmtNode extends StmtNode {
      * typeCheck
      ***/
     public void typeCheck(Type retType) {
+        checkCondition();
+        myThenStmtList.typeCheck(retType);
+        myElseStmtList.typeCheck(retType);
+    }
+
+    private void checkCondition() {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBoolType()) {
             ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
                          "Non-bool expression in condition of if");        
         }
-        
-        myThenStmtList.typeCheck(retType);
-        myElseStmtList.typeCheck(retType);
     }
         
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myExp = myExp.fold();
+        myThenStmtList.fold();
+        myElseStmtList.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("if (");
@@ -1330,14 +1843,14 @@ class IfElseStmtNode extends StmtNode {
         doIndent(p, indent);
         p.println("}");        
     }
-  public void codeGen(String funcExitLabel){
-    String trueLabel = Codegen.nextLabel();
-    String falseLabel = Codegen.nextLabel();
-    String doneLabel = Codegen.nextLabel();
+  public void codeGen(int funcExitLabel){
+    int trueLabel = Codegen.nextLabel();
+    int falseLabel = Codegen.nextLabel();
+    int doneLabel = Codegen.nextLabel();
     myExp.codeGenJump(trueLabel,falseLabel);
     Codegen.genLabel(trueLabel);
     myThenStmtList.codeGen(funcExitLabel);
-    Codegen.generate("b",doneLabel);
+    Codegen.generateWithLabel("b",doneLabel);
     Codegen.genLabel(falseLabel);
     myElseStmtList.codeGen(funcExitLabel);
     Codegen.genLabel(doneLabel);
@@ -1367,10 +1880,23 @@ class WhileStmtNode extends StmtNode {
      * - exit the scope
      ***/
     public void nameAnalysis(SymTable symTab) {
+        analyze(symTab, null);
+    }
+
+    /***
+     * analyze
+     * As nameAnalysis, but unless retType is null type check the condition
+     * and each statement right after its names.
+     ***/
+    public void analyze(SymTable symTab, Type retType) {
         myExp.nameAnalysis(symTab);
+        if (retType != null && ErrMsg.hold()) {
+            checkCondition();
+            ErrMsg.endHold();
+        }
         symTab.addScope();
         myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myStmtList.nameAnalysis(symTab, retType);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1384,16 +1910,27 @@ class WhileStmtNode extends StmtNode {
      * typeCheck
      ***/
     public void typeCheck(Type retType) {
+        checkCondition();
+        myStmtList.typeCheck(retType);
+    }
+
+    private void checkCondition() {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBoolType()) {
             ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
                          "Non-bool expression in condition of while");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
         
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myExp = myExp.fold();
+        myStmtList.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("while (");
@@ -1404,15 +1941,15 @@ class WhileStmtNode extends StmtNode {
         doIndent(p, indent);
         p.println("}");
     }
-    public void codeGen(String funcExitLabel){
-     String condLabel = Codegen.nextLabel();
-     String bodyLabel = Codegen.nextLabel();
-     String doneLabel = Codegen.nextLabel();
+    public void codeGen(int funcExitLabel){
+     int condLabel = Codegen.nextLabel();
+     int bodyLabel = Codegen.nextLabel();
+     int doneLabel = Codegen.nextLabel();
      Codegen.genLabel(condLabel);
      myExp.codeGenJump(bodyLabel,doneLabel);
      Codegen.genLabel(bodyLabel);
      myStmtList.codeGen(funcExitLabel);
-     Codegen.generate("b",condLabel);
+     Codegen.generateWithLabel("b",condLabel);
      Codegen.genLabel(doneLabel);
     }
 
@@ -1443,12 +1980,19 @@ class CallStmtNode extends StmtNode {
         myCall.typeCheck();
     }
     
+    /***
+     * fold
+     ***/
+    public void fold() {
+        myCall.fold();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myCall.unparse(p, indent);
         p.println(";");
     }
-    public void codeGen(String funcExitLabel){
+    public void codeGen(int funcExitLabel){
       myCall.codeGenCommon();
     }
 
@@ -1498,6 +2042,15 @@ class ReturnStmtNode extends StmtNode {
         
     }
     
+    /***
+     * fold
+     ***/
+    public void fold() {
+        if (myExp != null) {
+            myExp = myExp.fold();
+        }
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("return");
@@ -1508,12 +2061,12 @@ class ReturnStmtNode extends StmtNode {
         p.println(";");
     }
 
-    public void codeGen(String funcEndLabel){
-      if(myExp!=null && !myExp.typeCheck().isVoidType()){
+    public void codeGen(int funcEndLabel){
+      if(myExp!=null && !myExp.type().isVoidType()){
         myExp.codeGenExp();
         Codegen.genPop(Codegen.V0);
       }
-      Codegen.generate("b",funcEndLabel);
+      Codegen.generateWithLabel("b",funcEndLabel);
     }
 
     // one kid
@@ -1530,22 +2083,146 @@ abstract class ExpNode extends ASTnode {
      ***/
     public void nameAnalysis(SymTable symTab) { }
     
-    abstract public Type typeCheck();
-    abstract public int lineNum();
-    abstract public int charNum();
-  public void codeGenExp(){
-    this.codeGenCommon();
-    Codegen.genPush(Codegen.T0);
-  }
-  abstract protected void codeGenCommon();
-  public void codeGenJump(String trueLabel,String falseLabel){}
-
-}
+    /***
+     * typeCheck
+     * Computes the type of this expression (reporting any errors) the
+     * first time it is called and returns the same type after that, so
+     * every node is checked exactly once.
+     ***/
+    public Type typeCheck() {
+        if (myType == null) {
+            myType = checkType();
+        }
+        return myType;
+    }
+
+    /***
+     * Return the type found by typeCheck, or null if it has not run.
+     ***/
+    public Type type() {
+        return myType;
+    }
+
+    // every subclass computes its type here; only typeCheck calls it
+    abstract protected Type checkType();
+
+    /***
+     * fold
+     * Return an expression that computes the same value as this one, with
+     * constant subexpressions evaluated and operations that do nothing
+     * removed; the expression returned has been type checked.  Only used
+     * on programs without errors.  Default version for nodes with nothing
+     * to fold.
+     ***/
+    public ExpNode fold() {
+        return this;
+    }
+
+    // return true if exp is the int literal val
+    protected static boolean isIntLit(ExpNode exp, int val) {
+        return exp instanceof IntLitNode && ((IntLitNode)exp).value() == val;
+    }
+
+    // return the value of an int or bool literal (true is 1), or null if
+    // exp is not one
+    protected static Integer constValue(ExpNode exp) {
+        if (exp instanceof IntLitNode) {
+            return ((IntLitNode)exp).value();
+        } else if (exp instanceof TrueNode) {
+            return 1;
+        } else if (exp instanceof FalseNode) {
+            return 0;
+        }
+        return null;
+    }
+
+    // return a new int literal at the position of this expression
+    protected ExpNode intLit(int val) {
+        ExpNode lit = new IntLitNode(lineNum(), charNum(), val);
+        lit.typeCheck();
+        return lit;
+    }
+
+    // return a new true or false literal at the position of this expression
+    protected ExpNode boolLit(boolean val) {
+        ExpNode lit = val ? new TrueNode(lineNum(), charNum())
+                          : new FalseNode(lineNum(), charNum());
+        lit.typeCheck();
+        return lit;
+    }
+    abstract public int lineNum();
+    abstract public int charNum();
+  public void codeGenExp(){
+    this.codeGenCommon();
+    Codegen.genPush(Codegen.T0);
+  }
+  abstract protected void codeGenCommon();
+  // push the address of this location (an IdNode or a DotAccessExpNode)
+  public void codeGenLoc(){
+    throw new IllegalStateException("not a location: " +
+                                    getClass().getName());
+  }
+  public void codeGenJump(int trueLabel,int falseLabel){
+    this.codeGenCommon();
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
+  }
+
+    /***
+     * regNeed
+     * Return the number of registers needed to evaluate this expression
+     * without spilling (its Sethi-Ullman number), or 0 if it contains a
+     * call, an assignment or anything else that has to use the stack.
+     ***/
+    public int regNeed() {
+        if (myRegNeed < 0) {
+            myRegNeed = countRegs();
+        }
+        return myRegNeed;
+    }
+
+    // every subclass that can be evaluated in registers overrides this
+    // and codeGenReg
+    protected int countRegs() {
+        return 0;
+    }
+
+    /***
+     * codeGenReg
+     * Leave the value of this expression in Codegen.tReg(base), using only
+     * the registers from there up (and the stack once they run out).
+     * Only called when regNeed() > 0.
+     ***/
+    protected void codeGenReg(int base) {
+        throw new IllegalStateException("no register code for " +
+                                        getClass().getName());
+    }
+
+    /***
+     * codeGenInRegs
+     * If the register backend is on and this expression can use it,
+     * evaluate the expression into T0 and return true; otherwise generate
+     * nothing and return false.
+     ***/
+    protected boolean codeGenInRegs() {
+        if (!Codegen.regAlloc() || regNeed() == 0) {
+            return false;
+        }
+        codeGenReg(0);
+        return true;
+    }
+
+    private Type myType;  // set once by typeCheck
+    private int myRegNeed = -1;  // set once by regNeed
+}
 
 class IntLitNode extends ExpNode {
     public IntLitNode(int lineNum, int charNum, int intVal) {
-        myLineNum = lineNum;
-        myCharNum = charNum;
+        this(new TokenVal(lineNum, charNum), intVal);
+    }
+
+    public IntLitNode(TokenVal pos, int intVal) {
+        myPos = pos;
         myIntVal = intVal;
     }
 
@@ -1554,21 +2231,28 @@ class IntLitNode extends ExpNode {
      * Return the line number for this literal.
      ***/
     public int lineNum() {
-        return myLineNum;
+        return myPos.lineNum();
     }
     
     /***
      * Return the char number for this literal.
      ***/
     public int charNum() {
-        return myCharNum;
+        return myPos.charNum();
+    }
+
+    /***
+     * Return the value of this literal.
+     ***/
+    public int value() {
+        return myIntVal;
     }
         
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
-        return new IntType();
+    protected Type checkType() {
+        return Type.INT;
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -1579,15 +2263,25 @@ class IntLitNode extends ExpNode {
       Codegen.generate("li","$t0",String.valueOf(this.myIntVal));
     }
 
-    private int myLineNum;
-    private int myCharNum;
+    protected int countRegs() {
+        return 1;
+    }
+
+    protected void codeGenReg(int base) {
+        Codegen.generate("li", Codegen.tReg(base), String.valueOf(myIntVal));
+    }
+
+    private TokenVal myPos;  // where the token is
     private int myIntVal;
 }
 
 class StringLitNode extends ExpNode {
     public StringLitNode(int lineNum, int charNum, String strVal) {
-        myLineNum = lineNum;
-        myCharNum = charNum;
+        this(new TokenVal(lineNum, charNum), strVal);
+    }
+
+    public StringLitNode(TokenVal pos, String strVal) {
+        myPos = pos;
         myStrVal = strVal;
     }
     
@@ -1595,21 +2289,21 @@ class StringLitNode extends ExpNode {
      * Return the line number for this literal.
      ***/
     public int lineNum() {
-        return myLineNum;
+        return myPos.lineNum();
     }
     
     /***
      * Return the char number for this literal.
      ***/
     public int charNum() {
-        return myCharNum;
+        return myPos.charNum();
     }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
-        return new StringType();
+    protected Type checkType() {
+        return Type.STRING;
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1617,50 +2311,41 @@ class StringLitNode extends ExpNode {
     }
 
     protected void codeGenCommon(){
-      String newLabel = null;
-      if(!Codegen.stringMap.containsKey(myStrVal)){
-        Codegen.p.print("\t.data\n");
-        newLabel = Codegen.nextLabel();
-        Codegen.p.print(newLabel+":\t.asciiz "+myStrVal);
-        Codegen.p.print("\t.text\n");
-        Codegen.stringMap.put(myStrVal,newLabel);
-      }
-      else{
-        newLabel = Codegen.stringMap.get(myStrVal);
-      }
-      Codegen.generate("la",Codegen.T0,newLabel);
+      Codegen.generateWithLabel("la",Codegen.T0,Codegen.stringLabel(myStrVal));
     }
 
-    private int myLineNum;
-    private int myCharNum;
+    private TokenVal myPos;  // where the token is
     private String myStrVal;
 }
 
 class TrueNode extends ExpNode {
     public TrueNode(int lineNum, int charNum) {
-        myLineNum = lineNum;
-        myCharNum = charNum;
+        this(new TokenVal(lineNum, charNum));
+    }
+
+    public TrueNode(TokenVal pos) {
+        myPos = pos;
     }
 
     /***
      * Return the line number for this literal.
      ***/
     public int lineNum() {
-        return myLineNum;
+        return myPos.lineNum();
     }
     
     /***
      * Return the char number for this literal.
      ***/
     public int charNum() {
-        return myCharNum;
+        return myPos.charNum();
     }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
-        return new BoolType();
+    protected Type checkType() {
+        return Type.BOOL;
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1670,40 +2355,50 @@ class TrueNode extends ExpNode {
     protected void codeGenCommon(){
       Codegen.generate("li",Codegen.T0,Codegen.TRUE);
     }
-    public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected int countRegs() {
+        return 1;
+    }
+
+    protected void codeGenReg(int base) {
+        Codegen.generate("li", Codegen.tReg(base), Codegen.TRUE);
+    }
+    public void codeGenJump(int trueLabel,int falseLabel){
       this.codeGenCommon();
-      Codegen.generate("b",trueLabel);
+      Codegen.generateWithLabel("b",trueLabel);
     }
 
-    private int myLineNum;
-    private int myCharNum;
+    private TokenVal myPos;  // where the token is
 }
 
 class FalseNode extends ExpNode {
     public FalseNode(int lineNum, int charNum) {
-        myLineNum = lineNum;
-        myCharNum = charNum;
+        this(new TokenVal(lineNum, charNum));
+    }
+
+    public FalseNode(TokenVal pos) {
+        myPos = pos;
     }
 
     /***
      * Return the line number for this literal.
      ***/
     public int lineNum() {
-        return myLineNum;
+        return myPos.lineNum();
     }
     
     /***
      * Return the char number for this literal.
      ***/
     public int charNum() {
-        return myCharNum;
+        return myPos.charNum();
     }
 
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
-        return new BoolType();
+    protected Type checkType() {
+        return Type.BOOL;
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1713,19 +2408,30 @@ class FalseNode extends ExpNode {
     protected void codeGenCommon(){
       Codegen.generate("li",Codegen.T0,Codegen.FALSE);
     }
-    public void codeGenJump(String trueLabel, String falseLabel){
+
+    protected int countRegs() {
+        return 1;
+    }
+
+    protected void codeGenReg(int base) {
+        Codegen.generate("li", Codegen.tReg(base), Codegen.FALSE);
+    }
+    public void codeGenJump(int trueLabel, int falseLabel){
       this.codeGenCommon();
-      Codegen.generate("b",falseLabel);
+      Codegen.generateWithLabel("b",falseLabel);
     }
 
-    private int myLineNum;
-    private int myCharNum;
+    private TokenVal myPos;  // where the token is
 }
 
 class IdNode extends ExpNode {
-    public IdNode(int lineNum, int charNum, String strVal) {
-        myLineNum = lineNum;
-        myCharNum = charNum;
+    public IdNode(int lineNum, int charNum, int nameId, String strVal) {
+        this(new TokenVal(lineNum, charNum), nameId, strVal);
+    }
+
+    public IdNode(TokenVal pos, int nameId, String strVal) {
+        myPos = pos;
+        myNameId = nameId;
         myStrVal = strVal;
     }
 
@@ -1742,6 +2448,13 @@ class IdNode extends ExpNode {
     public String name() {
         return myStrVal;
     }
+
+    /***
+     * Return the id of this ID's name in the compilation's NameTable.
+     ***/
+    public int nameId() {
+        return myNameId;
+    }
     
     /***
      * Return the symbol associated with this ID.
@@ -1754,14 +2467,14 @@ class IdNode extends ExpNode {
      * Return the line number for this ID.
      ***/
     public int lineNum() {
-        return myLineNum;
+        return myPos.lineNum();
     }
     
     /***
      * Return the char number for this ID.
      ***/
     public int charNum() {
-        return myCharNum;
+        return myPos.charNum();
     }    
     
     /***
@@ -1772,9 +2485,9 @@ class IdNode extends ExpNode {
      ***/
     public void nameAnalysis(SymTable symTab) {
 		try {
-            Sym sym = symTab.lookupGlobal(myStrVal);
+            Sym sym = symTab.lookupGlobal(myNameId);
             if (sym == null) {
-                ErrMsg.fatal(myLineNum, myCharNum, "Identifier undeclared");
+                ErrMsg.fatal(lineNum(), charNum(), "Identifier undeclared");
             } else {
                 link(sym);
             }
@@ -1786,9 +2499,9 @@ class IdNode extends ExpNode {
     }
  
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         if (mySym != null) {
             return mySym.getType();
         } 
@@ -1805,28 +2518,41 @@ class IdNode extends ExpNode {
             p.print("(" + mySym + ")");
         }
     }
-    private void codeGenLoad(String command){
-      if(mySym.getGlobalOffset()!=1){
-        Codegen.generateIndexed(command,Codegen.T0,Codegen.FP,this.mySym.getGlobalOffset());
+    private void codeGenLoad(String command, String reg){
+      if(mySym.getGlobalOffset()!=Sym.GLOBAL){
+        Codegen.generateIndexed(command,reg,Codegen.FP,this.mySym.getGlobalOffset());
       } else {
-        Codegen.generate(command,Codegen.T0,"_"+myStrVal);
+        Codegen.generate(command,reg,"_"+myStrVal);
       }
     }
     protected void codeGenCommon(){
-      this.codeGenLoad("lw");
+      this.codeGenLoad("lw",Codegen.T0);
+    }
+    public void codeGenAddr(){
+      this.codeGenLoad("la",Codegen.T0);
     }
     public void codeGenLoc(){
-      this.codeGenLoad("la");
+      this.codeGenAddr();
       Codegen.genPush(Codegen.T0);
     }
-    public void codeGenJump(String trueLabel, String falseLabel){
-      this.codeGenLoad("lw");
-      Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-      Codegen.generate("b",trueLabel);
+    public void codeGenJump(int trueLabel, int falseLabel){
+      this.codeGenLoad("lw",Codegen.T0);
+      Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+      Codegen.generateWithLabel("b",trueLabel);
     }
 
-    private int myLineNum;
-    private int myCharNum;
+    // only int and bool variables fit in a register
+    protected int countRegs() {
+        Type type = mySym.getType();
+        return type.isIntType() || type.isBoolType() ? 1 : 0;
+    }
+
+    protected void codeGenReg(int base) {
+        codeGenLoad("lw", Codegen.tReg(base));
+    }
+
+    private TokenVal myPos;  // where the token is
+    private int myNameId;
     private String myStrVal;
     private Sym mySym;
 }
@@ -1938,7 +2664,7 @@ class DotAccessExpNode extends ExpNode {
         // do name analysis on RHS of dot-access in the struct's symbol table
         if (!badAccess) {
 			try {
-				sym = structSymTab.lookupGlobal(myId.name()); // lookup
+				sym = structSymTab.lookupGlobal(myId.nameId()); // lookup
 				if (sym == null) { // not found - RHS is not a valid field name
 					ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
 								"Struct field name invalid");
@@ -1962,9 +2688,9 @@ class DotAccessExpNode extends ExpNode {
     }    
  
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         return myId.typeCheck();
     }
     
@@ -1973,8 +2699,26 @@ class DotAccessExpNode extends ExpNode {
         p.print(".");
         myId.unparse(p, 0);
     }
+    // leave the address of the field in $t0: the address of the struct
+    // plus the offset of the field in it (see DeclListNode.layoutFields)
+    public void codeGenAddr(){
+      if(myLoc instanceof IdNode){
+        ((IdNode)myLoc).codeGenAddr();
+      } else {
+        ((DotAccessExpNode)myLoc).codeGenAddr();
+      }
+      int offset = myId.sym().getGlobalOffset();
+      if(offset != 0){
+        Codegen.generate("addu",Codegen.T0,Codegen.T0,offset);
+      }
+    }
     protected void codeGenCommon(){
-      //TODO - look at deleting
+      this.codeGenAddr();
+      Codegen.generateIndexed("lw",Codegen.T0,Codegen.T0,0);
+    }
+    public void codeGenLoc(){
+      this.codeGenAddr();
+      Codegen.genPush(Codegen.T0);
     }
 
     // two kids
@@ -2017,41 +2761,49 @@ class AssignExpNode extends ExpNode {
     }
  
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type typeLhs = myLhs.typeCheck();
         Type typeExp = myExp.typeCheck();
         Type retType = typeLhs;
         
         if (typeLhs.isFnType() && typeExp.isFnType()) {
             ErrMsg.fatal(lineNum(), charNum(), "Function assignment");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructDefType() && typeExp.isStructDefType()) {
             ErrMsg.fatal(lineNum(), charNum(), "Struct name assignment");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructType() && typeExp.isStructType()) {
             ErrMsg.fatal(lineNum(), charNum(), "Struct variable assignment");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }        
         
         if (!typeLhs.equals(typeExp) && !typeLhs.isErrorType() && !typeExp.isErrorType()) {
             ErrMsg.fatal(lineNum(), charNum(), "Type mismatch");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isErrorType() || typeExp.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
     
 	// *** unparse ***
+    /***
+     * fold
+     ***/
+    public ExpNode fold() {
+        myExp = myExp.fold();
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         if (indent != -1)  p.print("(");
         myLhs.unparse(p, 0);
@@ -2061,11 +2813,7 @@ class AssignExpNode extends ExpNode {
     }
     protected void codeGenCommon(){
       myExp.codeGenExp();
-      if(myLhs instanceof IdNode){
-        ((IdNode)myLhs).codeGenLoc();
-      } else{
-        return;
-      }
+      myLhs.codeGenLoc();
       Codegen.genPop(Codegen.T1);
       Codegen.genPop(Codegen.T0);
       Codegen.generateIndexed("sw",Codegen.T0,Codegen.T1,0);
@@ -2084,7 +2832,7 @@ class CallExpNode extends ExpNode {
 
     public CallExpNode(IdNode name) {
         myId = name;
-        myExpList = new ExpListNode(new LinkedList<ExpNode>());
+        myExpList = new ExpListNode(Collections.<ExpNode>emptyList());
     }
 
     /***
@@ -2114,13 +2862,13 @@ class CallExpNode extends ExpNode {
     }  
       
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         if (!myId.typeCheck().isFnType()) {  
             ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
                          "Call attempt on non-function");
-            return new ErrorType();
+            return Type.ERROR;
         }
         
         FnSym fnSym = (FnSym)(myId.sym());
@@ -2141,6 +2889,16 @@ class CallExpNode extends ExpNode {
     }
         
     // *** unparse ***
+    /***
+     * fold
+     ***/
+    public ExpNode fold() {
+        if (myExpList != null) {
+            myExpList.fold();
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         myId.unparse(p, 0);
         p.print("(");
@@ -2160,12 +2918,9 @@ class CallExpNode extends ExpNode {
       Codegen.generate("jal",jmpLabel);
       Codegen.generate("add",Codegen.SP,((FnSym)this.myId.sym()).getParamsSize());
       if(!((FnSym)this.myId.sym()).getReturnType().isVoidType()){
-        Codegen.genPush(Codegen.V0);
+        Codegen.generate("move",Codegen.T0,Codegen.V0);
       }
     }
-    public void codeGenExp(){
-      this.codeGenCommon();
-    }
 
     // two kids
     private IdNode myId;
@@ -2239,11 +2994,71 @@ abstract class BinaryExpNode extends ExpNode {
     }
 
     public void genCodeSubExp(){
+      if (myExp2 instanceof IntLitNode &&
+          CompilationContext.current().options.fold) {
+        // a literal right operand is loaded straight into T1 (not with
+        // -nofold, which keeps constant operands on the stack)
+        myExp1.codeGenExp();
+        Codegen.genPop(Codegen.T0);
+        Codegen.generate("li",Codegen.T1,((IntLitNode)myExp2).value());
+        return;
+      }
       myExp1.codeGenExp();
       myExp2.codeGenExp();
       Codegen.genPop(Codegen.T1);
       Codegen.genPop(Codegen.T0);
     }
+
+    // fold both operands
+    protected void foldKids() {
+        myExp1 = myExp1.fold();
+        myExp2 = myExp2.fold();
+    }
+
+    protected int countRegs() {
+        int left = myExp1.regNeed();
+        int right = myExp2.regNeed();
+        if (left == 0 || right == 0) {
+            return 0;
+        }
+        return left == right ? left + 1 : Math.max(left, right);
+    }
+
+    /***
+     * codeGenReg
+     * Evaluates the operand that needs more registers first, so that the
+     * other one can use the registers above it.  If there are not enough
+     * registers left, the left operand waits on the stack instead while
+     * the right one is evaluated.
+     ***/
+    protected void codeGenReg(int base) {
+        String dst = Codegen.tReg(base);
+        if (regNeed() > Codegen.NUM_TREGS - base) {
+            myExp1.codeGenReg(base);
+            Codegen.genPush(dst);
+            myExp2.codeGenReg(base);
+            Codegen.genPop(Codegen.V1);
+            genRegOp(dst, Codegen.V1, dst);
+        } else if (myExp1.regNeed() >= myExp2.regNeed()) {
+            myExp1.codeGenReg(base);
+            myExp2.codeGenReg(base + 1);
+            genRegOp(dst, dst, Codegen.tReg(base + 1));
+        } else {
+            myExp2.codeGenReg(base);
+            myExp1.codeGenReg(base + 1);
+            genRegOp(dst, Codegen.tReg(base + 1), dst);
+        }
+    }
+
+    /***
+     * genRegOp
+     * Generate the instructions that leave left OP right in dst, for the
+     * operators that can be evaluated in registers.
+     ***/
+    protected void genRegOp(String dst, String left, String right) {
+        throw new IllegalStateException("no register code for " +
+                                        getClass().getName());
+    }
     
     // two kids
     protected ExpNode myExp1;
@@ -2260,37 +3075,64 @@ class UnaryMinusNode extends UnaryExpNode {
     }
 
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type = myExp.typeCheck();
-        Type retType = new IntType();
+        Type retType = Type.INT;
         
         if (!type.isErrorType() && !type.isIntType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Arithmetic operator with non-numeric operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    /***
+     * fold
+     * -lit is a literal (unless it would overflow) and -(-x) is x.
+     ***/
+    public ExpNode fold() {
+        myExp = myExp.fold();
+        if (myExp instanceof IntLitNode) {
+            int val = ((IntLitNode)myExp).value();
+            if (val != Integer.MIN_VALUE) {
+                return intLit(-val);
+            }
+        } else if (myExp instanceof UnaryMinusNode) {
+            return ((UnaryMinusNode)myExp).myExp;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(-");
         myExp.unparse(p, 0);
         p.print(")");
     }
     protected void codeGenCommon(){
+      if (codeGenInRegs()) return;
       myExp.codeGenExp();
       Codegen.genPop(Codegen.T0);
       Codegen.generate("li",Codegen.T1,-1);
       Codegen.generate("mult",Codegen.T0,Codegen.T1);
       Codegen.generate("mflo",Codegen.T0);
     }
+
+    protected int countRegs() {
+        return myExp.regNeed();
+    }
+
+    protected void codeGenReg(int base) {
+        myExp.codeGenReg(base);
+        Codegen.generate("neg", Codegen.tReg(base), Codegen.tReg(base));
+    }
 }
 
 class NotNode extends UnaryExpNode {
@@ -2299,38 +3141,101 @@ class NotNode extends UnaryExpNode {
     }
 
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type = myExp.typeCheck();
-        Type retType = new BoolType();
+        Type retType = Type.BOOL;
         
         if (!type.isErrorType() && !type.isBoolType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Logical operator with non-bool operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    /***
+     * fold
+     * !true is false, !false is true and !!b is b.
+     ***/
+    public ExpNode fold() {
+        myExp = myExp.fold();
+        if (myExp instanceof TrueNode || myExp instanceof FalseNode) {
+            return boolLit(myExp instanceof FalseNode);
+        } else if (myExp instanceof NotNode) {
+            return ((NotNode)myExp).myExp;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(!");
         myExp.unparse(p, 0);
         p.print(")");
     }
     protected void codeGenCommon(){
+      if (codeGenInRegs()) return;
       myExp.codeGenExp();
       Codegen.genPop(Codegen.T0);
       Codegen.generate("seq",Codegen.T0,Codegen.T0,Codegen.FALSE);
     }
-    public void codeGenJump(String trueLabel,String falseLabel){
-      //TODO - look at deleting
+
+    protected int countRegs() {
+        return myExp.regNeed();
+    }
+
+    protected void codeGenReg(int base) {
+        myExp.codeGenReg(base);
+        Codegen.generate("seq", Codegen.tReg(base), Codegen.tReg(base),
+                         Codegen.FALSE);
+    }
+}
+
+class ShiftLeftNode extends UnaryExpNode {
+    public ShiftLeftNode(ExpNode exp, int shift) {
+        super(exp);
+        myShift = shift;
+    }
+
+    /***
+     * checkType
+     * Shifts are only made by fold, out of multiplications by a power of
+     * two that have already been checked.
+     ***/
+    protected Type checkType() {
+        return myExp.typeCheck();
+    }
+
+    // unparsed as the multiplication it stands for
+    public void unparse(PrintWriter p, int indent) {
+        p.print("(");
+        myExp.unparse(p, 0);
+        p.print(" * " + (1 << myShift) + ")");
+    }
+    protected void codeGenCommon(){
+      if (codeGenInRegs()) return;
+      myExp.codeGenExp();
+      Codegen.genPop(Codegen.T0);
+      Codegen.generate("sll",Codegen.T0,Codegen.T0,myShift);
+    }
+
+    protected int countRegs() {
+        return myExp.regNeed();
+    }
+
+    protected void codeGenReg(int base) {
+        myExp.codeGenReg(base);
+        Codegen.generate("sll", Codegen.tReg(base), Codegen.tReg(base),
+                         myShift);
     }
+
+    private int myShift;
 }
 
 // **********************************************************************
@@ -2343,27 +3248,27 @@ abstract class ArithmeticExpNode extends BinaryExpNode {
     }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type1 = myExp1.typeCheck();
         Type type2 = myExp2.typeCheck();
-        Type retType = new IntType();
+        Type retType = Type.INT;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
             ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
                          "Arithmetic operator with non-numeric operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
             ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
                          "Arithmetic operator with non-numeric operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2374,29 +3279,34 @@ abstract class LogicalExpNode extends BinaryExpNode {
     public LogicalExpNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
+
+    // && and || short-circuit, so they always go through the jump code
+    protected int countRegs() {
+        return 0;
+    }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type1 = myExp1.typeCheck();
         Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isBoolType()) {
             ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
                          "Logical operator with non-bool operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isBoolType()) {
             ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
                          "Logical operator with non-bool operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2409,49 +3319,66 @@ abstract class EqualityExpNode extends BinaryExpNode {
     }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type1 = myExp1.typeCheck();
         Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+        Type retType = Type.BOOL;
         
         if (type1.isVoidType() && type2.isVoidType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Equality operator used with void functions");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isFnType() && type2.isFnType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Equality operator used with functions");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isStructDefType() && type2.isStructDefType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Equality operator used with struct names");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isStructType() && type2.isStructType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Equality operator used with struct variables");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }        
         
         if (!type1.equals(type2) && !type1.isErrorType() && !type2.isErrorType()) {
             ErrMsg.fatal(lineNum(), charNum(),
                          "Type mismatch");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
+
+    /***
+     * fold
+     * A comparison of two literals is a literal.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        Integer left = constValue(myExp1);
+        Integer right = constValue(myExp2);
+        if (left != null && right != null) {
+            return boolLit(test(left, right));
+        }
+        return this;
+    }
+
+    // the result of the comparison, for fold
+    abstract protected boolean test(int left, int right);
 }
 
 abstract class RelationalExpNode extends BinaryExpNode {
@@ -2460,31 +3387,48 @@ abstract class RelationalExpNode extends BinaryExpNode {
     }
     
     /***
-     * typeCheck
+     * checkType
      ***/
-    public Type typeCheck() {
+    protected Type checkType() {
         Type type1 = myExp1.typeCheck();
         Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
             ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
                          "Relational operator with non-numeric operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
             ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
                          "Relational operator with non-numeric operand");
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
+
+    /***
+     * fold
+     * A comparison of two literals is a literal.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        Integer left = constValue(myExp1);
+        Integer right = constValue(myExp2);
+        if (left != null && right != null) {
+            return boolLit(test(left, right));
+        }
+        return this;
+    }
+
+    // the result of the comparison, for fold
+    abstract protected boolean test(int left, int right);
 }
 
 class PlusNode extends ArithmeticExpNode {
@@ -2492,6 +3436,29 @@ class PlusNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
+    /***
+     * fold
+     * lit + lit (unless it overflows), x + 0 and 0 + x.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof IntLitNode && myExp2 instanceof IntLitNode) {
+            try {
+                return intLit(Math.addExact(((IntLitNode)myExp1).value(),
+                                            ((IntLitNode)myExp2).value()));
+            } catch (ArithmeticException ex) {  // add would trap; keep it
+                return this;
+            }
+        }
+        if (isIntLit(myExp2, 0)) {
+            return myExp1;
+        }
+        if (isIntLit(myExp1, 0)) {
+            return myExp2;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2500,10 +3467,14 @@ class PlusNode extends ArithmeticExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("add",Codegen.T0,Codegen.T1);
-    Codegen.generate("mflo",Codegen.T0);
   }
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("add", dst, left, right);
+    }
 }
 
 class MinusNode extends ArithmeticExpNode {
@@ -2511,6 +3482,26 @@ class MinusNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
+    /***
+     * fold
+     * lit - lit (unless it overflows) and x - 0.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof IntLitNode && myExp2 instanceof IntLitNode) {
+            try {
+                return intLit(Math.subtractExact(((IntLitNode)myExp1).value(),
+                                                 ((IntLitNode)myExp2).value()));
+            } catch (ArithmeticException ex) {  // sub would trap; keep it
+                return this;
+            }
+        }
+        if (isIntLit(myExp2, 0)) {
+            return myExp1;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2519,10 +3510,14 @@ class MinusNode extends ArithmeticExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("sub",Codegen.T0,Codegen.T1);
-    Codegen.generate("mflo",Codegen.T0);
   }
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("sub", dst, left, right);
+    }
 }
 
 class TimesNode extends ArithmeticExpNode {
@@ -2531,6 +3526,44 @@ class TimesNode extends ArithmeticExpNode {
     }
 
     
+    /***
+     * fold
+     * lit * lit (wrapping around like mult does), x * 1 and 1 * x; a
+     * multiplication by a power of two becomes a shift.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof IntLitNode && myExp2 instanceof IntLitNode) {
+            return intLit(((IntLitNode)myExp1).value() *
+                          ((IntLitNode)myExp2).value());
+        }
+        if (isIntLit(myExp2, 1)) {
+            return myExp1;
+        }
+        if (isIntLit(myExp1, 1)) {
+            return myExp2;
+        }
+        ExpNode shift = shift(myExp1, myExp2);
+        if (shift == null) {
+            shift = shift(myExp2, myExp1);
+        }
+        return shift == null ? this : shift;
+    }
+
+    // return exp << k if lit is the literal 2^k (k > 0), otherwise null
+    private static ExpNode shift(ExpNode exp, ExpNode lit) {
+        if (!(lit instanceof IntLitNode)) {
+            return null;
+        }
+        int val = ((IntLitNode)lit).value();
+        if (val <= 1 || Integer.bitCount(val) != 1) {
+            return null;
+        }
+        ExpNode node = new ShiftLeftNode(exp, Integer.numberOfTrailingZeros(val));
+        node.typeCheck();
+        return node;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2539,11 +3572,17 @@ class TimesNode extends ArithmeticExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("mult",Codegen.T0,Codegen.T1);
     Codegen.generate("mflo",Codegen.T0);
   }
 
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("mult", left, right);
+        Codegen.generate("mflo", dst);
+    }
+
 }
 
 class DivideNode extends ArithmeticExpNode {
@@ -2551,6 +3590,26 @@ class DivideNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
+    /***
+     * fold
+     * lit / lit (unless it divides by zero or overflows) and x / 1.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof IntLitNode && myExp2 instanceof IntLitNode) {
+            int left = ((IntLitNode)myExp1).value();
+            int right = ((IntLitNode)myExp2).value();
+            if (right != 0 && !(left == Integer.MIN_VALUE && right == -1)) {
+                return intLit(left / right);
+            }
+            return this;
+        }
+        if (isIntLit(myExp2, 1)) {
+            return myExp1;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2559,10 +3618,16 @@ class DivideNode extends ArithmeticExpNode {
         p.print(")");
     }
     protected void codeGenCommon(){
+      if (codeGenInRegs()) return;
       this.genCodeSubExp();
       Codegen.generate("div",Codegen.T0,Codegen.T1);
       Codegen.generate("mflo",Codegen.T0);
     }
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("div", left, right);
+        Codegen.generate("mflo", dst);
+    }
 }
 
 class AndNode extends LogicalExpNode {
@@ -2570,6 +3635,24 @@ class AndNode extends LogicalExpNode {
         super(exp1, exp2);
     }
     
+    /***
+     * fold
+     * true && b is b, false && b is false and b && true is b.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof TrueNode) {
+            return myExp2;
+        }
+        if (myExp1 instanceof FalseNode) {
+            return myExp1;
+        }
+        if (myExp2 instanceof TrueNode) {
+            return myExp1;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2578,16 +3661,16 @@ class AndNode extends LogicalExpNode {
         p.print(")");
     }
     protected void codeGenCommon(){
-      String rightExprLabel = Codegen.nextLabel();
-      String endLabel = Codegen.nextLabel();
+      int rightExprLabel = Codegen.nextLabel();
+      int endLabel = Codegen.nextLabel();
       myExp1.codeGenJump(rightExprLabel,endLabel);
       Codegen.genLabel(rightExprLabel);
       myExp2.codeGenCommon();
       Codegen.genLabel(endLabel);
     }
-    public void codeGenJump(String trueLabel,String falseLabel){
-      String rightExprLabel = Codegen.nextLabel();
-      myExp1.codeGenJump(trueLabel,falseLabel);
+    public void codeGenJump(int trueLabel,int falseLabel){
+      int rightExprLabel = Codegen.nextLabel();
+      myExp1.codeGenJump(rightExprLabel,falseLabel);
       Codegen.genLabel(rightExprLabel);
       myExp2.codeGenJump(trueLabel,falseLabel);
     }
@@ -2598,6 +3681,24 @@ class OrNode extends LogicalExpNode {
         super(exp1, exp2);
     }
     
+    /***
+     * fold
+     * true || b is true, false || b is b and b || false is b.
+     ***/
+    public ExpNode fold() {
+        foldKids();
+        if (myExp1 instanceof TrueNode) {
+            return myExp1;
+        }
+        if (myExp1 instanceof FalseNode) {
+            return myExp2;
+        }
+        if (myExp2 instanceof FalseNode) {
+            return myExp1;
+        }
+        return this;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(");
         myExp1.unparse(p, 0);
@@ -2606,16 +3707,16 @@ class OrNode extends LogicalExpNode {
         p.print(")");
     }
     protected void codeGenCommon(){
-      String rightExprLabel = Codegen.nextLabel();
-      String endLabel = Codegen.nextLabel();
+      int rightExprLabel = Codegen.nextLabel();
+      int endLabel = Codegen.nextLabel();
       myExp1.codeGenJump(endLabel,rightExprLabel);
       Codegen.genLabel(rightExprLabel);
       myExp2.codeGenCommon();
       Codegen.genLabel(endLabel);
     }
-    public void codeGenJump(String trueLabel,String falseLabel){
-      String rightExprLabel = Codegen.nextLabel();
-      myExp1.codeGenJump(trueLabel,falseLabel);
+    public void codeGenJump(int trueLabel,int falseLabel){
+      int rightExprLabel = Codegen.nextLabel();
+      myExp1.codeGenJump(trueLabel,rightExprLabel);
       Codegen.genLabel(rightExprLabel);
       myExp2.codeGenJump(trueLabel,falseLabel);
     }
@@ -2634,14 +3735,23 @@ class EqualsNode extends EqualityExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("seq",Codegen.T0,Codegen.T0,Codegen.T1);
   }
-  public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("seq", dst, left, right);
+    }
+  public void codeGenJump(int trueLabel,int falseLabel){
     this.codeGenCommon();
-    Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-    Codegen.generate("b",trueLabel);
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
   }
+
+    protected boolean test(int left, int right) {
+        return left == right;
+    }
 }
 
 class NotEqualsNode extends EqualityExpNode {
@@ -2657,14 +3767,23 @@ class NotEqualsNode extends EqualityExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("sne",Codegen.T0,Codegen.T0,Codegen.T1);
   }
-  public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("sne", dst, left, right);
+    }
+  public void codeGenJump(int trueLabel,int falseLabel){
     this.codeGenCommon();
-    Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-    Codegen.generate("b",trueLabel);
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
   }
+
+    protected boolean test(int left, int right) {
+        return left != right;
+    }
 }
 
 class LessNode extends RelationalExpNode {
@@ -2680,14 +3799,23 @@ class LessNode extends RelationalExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
-    Codegen.generate("sgt",Codegen.T0,Codegen.T0,Codegen.T1);
+    Codegen.generate("slt",Codegen.T0,Codegen.T0,Codegen.T1);
   }
-  public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("slt", dst, left, right);
+    }
+  public void codeGenJump(int trueLabel,int falseLabel){
     this.codeGenCommon();
-    Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-    Codegen.generate("b",trueLabel);
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
   }
+
+    protected boolean test(int left, int right) {
+        return left < right;
+    }
 }
 
 class GreaterNode extends RelationalExpNode {
@@ -2703,15 +3831,24 @@ class GreaterNode extends RelationalExpNode {
         p.print(")");
     }
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("sgt",Codegen.T0,Codegen.T0,Codegen.T1);
   }
-  public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("sgt", dst, left, right);
+    }
+  public void codeGenJump(int trueLabel,int falseLabel){
     this.codeGenCommon();
-    Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-    Codegen.generate("b",trueLabel);
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
   }
 
+
+    protected boolean test(int left, int right) {
+        return left > right;
+    }
 }
 
 class LessEqNode extends RelationalExpNode {
@@ -2728,14 +3865,23 @@ class LessEqNode extends RelationalExpNode {
     }
 
   protected void codeGenCommon(){
+    if (codeGenInRegs()) return;
     this.genCodeSubExp();
     Codegen.generate("sle",Codegen.T0,Codegen.T0,Codegen.T1);
   }
-  public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("sle", dst, left, right);
+    }
+  public void codeGenJump(int trueLabel,int falseLabel){
     this.codeGenCommon();
-    Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-    Codegen.generate("b",trueLabel);
+    Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+    Codegen.generateWithLabel("b",trueLabel);
   }
+
+    protected boolean test(int left, int right) {
+        return left <= right;
+    }
 }
 
 class GreaterEqNode extends RelationalExpNode {
@@ -2744,13 +3890,18 @@ class GreaterEqNode extends RelationalExpNode {
     }
 
     protected void codeGenCommon(){
+      if (codeGenInRegs()) return;
       this.genCodeSubExp();
       Codegen.generate("sge",Codegen.T0,Codegen.T0,Codegen.T1);
     }
-    public void codeGenJump(String trueLabel,String falseLabel){
+
+    protected void genRegOp(String dst, String left, String right) {
+        Codegen.generate("sge", dst, left, right);
+    }
+    public void codeGenJump(int trueLabel,int falseLabel){
       this.codeGenCommon();
-      Codegen.generate("beq",Codegen.T0,Codegen.FALSE,falseLabel);
-      Codegen.generate("b",trueLabel);
+      Codegen.generateWithLabel("beq",Codegen.T0,Codegen.FALSE,falseLabel);
+      Codegen.generateWithLabel("b",trueLabel);
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -2760,4 +3911,8 @@ class GreaterEqNode extends RelationalExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    protected boolean test(int left, int right) {
+        return left >= right;
+    }
 }